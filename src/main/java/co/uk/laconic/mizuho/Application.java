@@ -1,6 +1,7 @@
 package co.uk.laconic.mizuho;
 
 import co.uk.laconic.mizuho.integration.routes.InboundPricesRoute;
+import co.uk.laconic.mizuho.store.StoreBudget;
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.camel.CamelContext;
 import org.apache.camel.component.jms.JmsComponent;
@@ -39,6 +40,21 @@ public class Application {
         return context;
     }
 
+    /**
+     * Limits for the PriceStore on top of the time based eviction, all of them unbounded by default
+     * @param maxEntries maximum number of prices held
+     * @param maxBytes maximum estimated memory taken by the prices held
+     * @param vendorCaps maximum number of prices per vendor, as `vendor=maxEntries,...`
+     * @return
+     */
+    @Bean
+    public StoreBudget storeBudget(
+            @Value("${priceserver.budget.max-entries:0}") long maxEntries,
+            @Value("${priceserver.budget.max-bytes:0}") long maxBytes,
+            @Value("${priceserver.budget.vendor-caps:}") String vendorCaps) {
+        return new StoreBudget(maxEntries, maxBytes, StoreBudget.vendorCaps(vendorCaps));
+    }
+
     public static void main(String[] args) {
         SpringApplication.run(Application.class, args);
     }
@@ -0,0 +1,107 @@
+package co.uk.laconic.mizuho;
+
+import co.uk.laconic.mizuho.integration.routes.InboundPricesRoute;
+import co.uk.laconic.mizuho.integration.routes.PricesHttpRoute;
+import co.uk.laconic.mizuho.store.PriceStore;
+import co.uk.laconic.mizuho.store.StoreBudget;
+import co.uk.laconic.mizuho.store.impl.EmbeddedPriceStore;
+import co.uk.laconic.mizuho.store.impl.RedisPriceStore;
+import co.uk.laconic.mizuho.store.impl.TieredPriceStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.camel.component.jms.JmsComponent;
+import org.apache.camel.main.Main;
+import org.apache.camel.main.MainListenerSupport;
+import org.apache.camel.main.MainSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Alternative entry point that runs the price server on a plain Camel context, without Spring.
+ *
+ * Everything is wired by hand (no classpath scanning or auto configuration) and the rest endpoints
+ * are served by the PricesHttpRoute instead of the PricesController, so it starts noticeably faster
+ * and with a smaller footprint than the Application, which is useful when scaling out instances.
+ *
+ * Configuration is taken from system properties or environment variables, using the same names
+ * and defaults as the Spring Boot mode, plus `priceserver.http.host` and `priceserver.http.port`.
+ */
+public class LightweightApplication {
+
+    private static final Logger logger = LoggerFactory.getLogger(LightweightApplication.class);
+    private static final long started = System.nanoTime();
+
+    public static void main(String[] args) throws Exception {
+        PriceStore store = createStore();
+
+        // same settings spring boot applies to its own object mapper, so both modes render prices alike
+        // the json data format in the inbound route picks it up from the registry as it is the only one
+        ObjectMapper json = new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+        ActiveMQConnectionFactory connectionFactory =
+                new ActiveMQConnectionFactory(property("activemq.broker.url", "vm://localhost"));
+
+        Main main = new Main();
+        main.bind("jms", JmsComponent.jmsComponentAutoAcknowledge(connectionFactory));
+        main.bind("json", json);
+        main.addRouteBuilder(new InboundPricesRoute(
+                store,
+                property("priceserver.deadletter.uri", "jms:queue:deadletters"),
+                property("priceserver.mailbox.uri", "jms:queue:prices"),
+                property("priceserver.eviction.uri", "timer://evict?fixedRate=true&period=60000"),
+                Integer.parseInt(property("priceserver.mailbox.batch-size", "1")),
+                Long.parseLong(property("priceserver.mailbox.batch-timeout", "100"))));
+        main.addRouteBuilder(new PricesHttpRoute(
+                store,
+                json,
+                property("priceserver.http.host", "0.0.0.0"),
+                Integer.parseInt(property("priceserver.http.port", "8080"))));
+        main.addMainListener(new MainListenerSupport() {
+            @Override
+            public void afterStart(MainSupport main) {
+                Runtime runtime = Runtime.getRuntime();
+                logger.info("Started price server in {} ms (JVM running for {} ms), heap used: {} MB",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started),
+                        ManagementFactory.getRuntimeMXBean().getUptime(),
+                        (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024));
+            }
+        });
+        main.run(args);
+    }
+
+    /**
+     * Picks the store implementation from `priceserver.store`, same as the @ConditionalOnProperty on each of them
+     */
+    private static PriceStore createStore() {
+        StoreBudget budget = new StoreBudget(
+                Long.parseLong(property("priceserver.budget.max-entries", "0")),
+                Long.parseLong(property("priceserver.budget.max-bytes", "0")),
+                StoreBudget.vendorCaps(property("priceserver.budget.vendor-caps", "")));
+        switch (property("priceserver.store", "embedded")) {
+            case "tiered":
+                return new TieredPriceStore(budget);
+            case "redis":
+                return new RedisPriceStore(
+                        URI.create(property("priceserver.redis.uri", "redis://localhost:6379")),
+                        Long.parseLong(property("priceserver.redis.near-cache-max-prices", "100000")));
+            default:
+                return new EmbeddedPriceStore(budget);
+        }
+    }
+
+    /**
+     * Looks up a setting in the system properties first and then in the environment (as docker-compose provides them)
+     */
+    private static String property(String name, String defaultValue) {
+        String value = System.getProperty(name, System.getenv(name));
+        return value != null ? value : defaultValue;
+    }
+}
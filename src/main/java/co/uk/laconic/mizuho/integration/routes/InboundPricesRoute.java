@@ -3,20 +3,35 @@ package co.uk.laconic.mizuho.integration.routes;
 import co.uk.laconic.mizuho.domain.Price;
 import co.uk.laconic.mizuho.events.PriceEvent;
 import co.uk.laconic.mizuho.store.PriceStore;
+import org.apache.camel.Exchange;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.model.ProcessorDefinition;
 import org.apache.camel.model.dataformat.JsonLibrary;
+import org.apache.camel.processor.aggregate.GroupedBodyAggregationStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+import java.util.stream.Collectors;
+
 /**
  * Defines the main routes and processing for this service, these are:
  *
  * pricesMailbox ==> process(priceEvent) ==> store.append(price)
  *               ==> queue:deadletters (in case of errors)
  *
+ * or when `priceserver.mailbox.batch-size` is above 1 (useful when the store is remote):
+ *
+ * pricesMailbox ==> process(priceEvent) ==> aggregate(batchSize, batchTimeout) ==> store.appendAll(prices)
+ *                                                                             ==> queue:deadletters (one json price event per message)
+ *
+ * Messages are acknowledged once they are in a batch, so when the store fails to take a batch its events are
+ * sent to deadletters one at a time, as json the mailbox accepts so they can be replayed.
+ * Bear in mind a crash can still lose the batch being built.
+ *
  * evictiontimer ==> store::evict
  */
 @Component
@@ -31,12 +46,29 @@ public class InboundPricesRoute extends RouteBuilder {
     private String mailboxUri;
     @Value("${priceserver.eviction.uri:timer://evict?fixedRate=true&period=60000}")
     private String evictionUri;
+    @Value("${priceserver.mailbox.batch-size:1}")
+    private int batchSize;
+    @Value("${priceserver.mailbox.batch-timeout:100}")
+    private long batchTimeout;
 
     @Autowired
     public InboundPricesRoute(PriceStore store) {
         this.store = store;
     }
 
+    /**
+     * Allows the route to be used outside of a Spring context, where the `@Value` defaults above are not applied.
+     */
+    public InboundPricesRoute(PriceStore store, String deadlettersUri, String mailboxUri, String evictionUri,
+                              int batchSize, long batchTimeout) {
+        this(store);
+        this.deadlettersUri = deadlettersUri;
+        this.mailboxUri = mailboxUri;
+        this.evictionUri = evictionUri;
+        this.batchSize = batchSize;
+        this.batchTimeout = batchTimeout;
+    }
+
     @Override
     public void configure() {
         logger.info("Configuring routes on `{}`...", this.getClass().getName());
@@ -45,14 +77,34 @@ public class InboundPricesRoute extends RouteBuilder {
         errorHandler(deadLetterChannel(deadlettersUri));
 
         // main queue where we expect prices to show up
-        from(mailboxUri)
+        ProcessorDefinition<?> mailbox = from(mailboxUri)
                 .routeId("prices:mailbox")
                 .unmarshal()
                     .json(JsonLibrary.Jackson, PriceEvent.class)
                 .process()
-                    .message(msg -> logger.info("Received message: `{}`", msg))
-                .process()
+                    .message(msg -> logger.info("Received message: `{}`", msg));
+
+        if (batchSize > 1) {
+            mailbox.aggregate(constant(true), new GroupedBodyAggregationStrategy())
+                    .completionSize(batchSize)
+                    .completionTimeout(batchTimeout)
+                    .doTry()
+                        .process(exchange -> batchProcessor(exchange.getIn().getBody(List.class)))
+                    .doCatch(Exception.class)
+                        .process(exchange -> logger.warn("Failed to store a batch of {} prices, sending them to `{}`",
+                                exchange.getIn().getBody(List.class).size(), deadlettersUri,
+                                exchange.getProperty(Exchange.EXCEPTION_CAUGHT)))
+                        .split(body())
+                            .marshal()
+                                .json(JsonLibrary.Jackson)
+                            .convertBodyTo(String.class)
+                            .to(deadlettersUri)
+                        .end()
+                    .end();
+        } else {
+            mailbox.process()
                     .body(PriceEvent.class, this::processor);
+        }
 
         // attempt to evict every minute
         from(evictionUri)
@@ -67,4 +119,11 @@ public class InboundPricesRoute extends RouteBuilder {
     private void processor(PriceEvent e) {
         store.append(Price.fromEvent(e));
     }
+
+    private void batchProcessor(List<?> events) {
+        store.appendAll(events.stream()
+                .map(PriceEvent.class::cast)
+                .map(Price::fromEvent)
+                .collect(Collectors.toList()));
+    }
 }
@@ -0,0 +1,84 @@
+package co.uk.laconic.mizuho.integration.routes;
+
+import co.uk.laconic.mizuho.domain.Price;
+import co.uk.laconic.mizuho.store.PriceStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.model.rest.RestBindingMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Camel counterpart of the PricesController, exposing the same read endpoints through the rest dsl:
+ *
+ * GET /prices/vendors/{vendorId}         ==> store.getByVendor(vendorId)
+ * GET /prices/instruments/{instrumentId} ==> store.getByInstrument(instrumentId)
+ *
+ * It is only used by the LightweightApplication, so it is not a Spring component.
+ * The http server is provided by camel-undertow which is much lighter to start than a servlet container.
+ */
+public class PricesHttpRoute extends RouteBuilder {
+
+    private static final Logger logger = LoggerFactory.getLogger(PricesHttpRoute.class);
+    private final PriceStore store;
+    private final ObjectMapper json;
+    private final String host;
+    private final int port;
+
+    public PricesHttpRoute(PriceStore store, ObjectMapper json, String host, int port) {
+        this.store = store;
+        this.json = json;
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public void configure() {
+        logger.info("Configuring routes on `{}`...", this.getClass().getName());
+
+        restConfiguration()
+                .component("undertow")
+                .host(host)
+                .port(port)
+                .bindingMode(RestBindingMode.off);
+
+        rest("/prices")
+                .get("/vendors/{vendorId}")
+                    .produces("application/json")
+                    .route()
+                    .routeId("prices:http:vendors")
+                    .process(this::getByVendorId)
+                .endRest()
+                .get("/instruments/{instrumentId}")
+                    .produces("application/json")
+                    .route()
+                    .routeId("prices:http:instruments")
+                    .process(this::getByInstrument);
+    }
+
+    private void getByVendorId(Exchange exchange) throws Exception {
+        String vendorId = exchange.getIn().getHeader("vendorId", String.class);
+        logger.info("Requesting prices for vendor: `{}`", vendorId);
+        respond(exchange, store.getByVendor(vendorId));
+    }
+
+    private void getByInstrument(Exchange exchange) throws Exception {
+        String instrumentId = exchange.getIn().getHeader("instrumentId", String.class);
+        logger.info("Requesting prices for instrument: `{}`", instrumentId);
+        respond(exchange, store.getByInstrument(instrumentId));
+    }
+
+    /**
+     * Renders the prices as a json array, same as the controller does with the Flux.
+     */
+    private void respond(Exchange exchange, Stream<Price> prices) throws Exception {
+        List<Price> body = prices.collect(Collectors.toList());
+        exchange.getIn().setHeader(Exchange.CONTENT_TYPE, "application/json");
+        exchange.getIn().setBody(json.writeValueAsBytes(body));
+    }
+}
@@ -2,6 +2,7 @@ package co.uk.laconic.mizuho.store;
 
 import co.uk.laconic.mizuho.domain.Price;
 
+import java.util.Collection;
 import java.util.stream.Stream;
 
 public interface PriceStore {
@@ -25,6 +26,15 @@ public interface PriceStore {
      */
     void append(Price price);
 
+    /**
+     * Append a batch of prices to the cache, implementations backed by a remote cache
+     * can override this to save round trips.
+     * @param prices
+     */
+    default void appendAll(Collection<Price> prices) {
+        prices.forEach(this::append);
+    }
+
     /**
      * Applies the eviction algorithm to remove stale/old entries.
      */
@@ -0,0 +1,100 @@
+package co.uk.laconic.mizuho.store;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import org.springframework.util.Assert;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Limits on how much a PriceStore is allowed to hold, on top of the time based eviction.
+ * Once a limit is exceeded the store evicts its oldest prices until it is back under budget.
+ *
+ * Any limit set to `0` (or not set at all for vendors) is considered unbounded.
+ */
+public class StoreBudget {
+
+    private static final StoreBudget UNBOUNDED = new StoreBudget(0, 0, ImmutableMap.of());
+
+    public static StoreBudget unbounded() {
+        return UNBOUNDED;
+    }
+
+    /**
+     * Parses per vendor caps in the form `vendor=maxEntries,...` (as they are provided in the configuration)
+     * @param caps
+     * @return
+     */
+    public static Map<String, Long> vendorCaps(String caps) {
+        ImmutableMap.Builder<String, Long> builder = ImmutableMap.builder();
+        Splitter.on(',').omitEmptyStrings().trimResults().withKeyValueSeparator('=')
+                .split(caps)
+                .forEach((vendorId, maxEntries) -> builder.put(vendorId, Long.parseLong(maxEntries.trim())));
+        return builder.build();
+    }
+
+    /**
+     * Vendors are matched regardless of case and surrounding whitespace, same as when querying the stores
+     */
+    public static String vendorKey(String vendorId) {
+        return vendorId.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private final long maxEntries;
+    private final long maxBytes;
+    private final Map<String, Long> vendorCaps;
+
+    /**
+     * @param maxEntries maximum number of prices held
+     * @param maxBytes maximum estimated memory footprint of the prices held
+     * @param vendorCaps maximum number of prices held for each of the vendors (case insensitive)
+     */
+    public StoreBudget(long maxEntries, long maxBytes, Map<String, Long> vendorCaps) {
+        Assert.isTrue(maxEntries >= 0, "maxEntries must not be negative.");
+        Assert.isTrue(maxBytes >= 0, "maxBytes must not be negative.");
+        Assert.notNull(vendorCaps, "vendorCaps must not be null.");
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        ImmutableMap.Builder<String, Long> caps = ImmutableMap.builder();
+        vendorCaps.forEach((vendorId, cap) -> {
+            Assert.isTrue(cap >= 0, "vendor caps must not be negative.");
+            caps.put(vendorKey(vendorId), cap);
+        });
+        this.vendorCaps = caps.build();
+    }
+
+    public long getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public Optional<Long> getVendorCap(String vendorId) {
+        return Optional.ofNullable(vendorCaps.get(vendorKey(vendorId))).filter(cap -> cap > 0);
+    }
+
+    public boolean isBounded() {
+        return maxEntries > 0 || maxBytes > 0 || vendorCaps.values().stream().anyMatch(cap -> cap > 0);
+    }
+
+    /**
+     * @return whether the given totals go over the store wide limits
+     */
+    public boolean isExceededBy(long entries, long bytes) {
+        return (maxEntries > 0 && entries > maxEntries) || (maxBytes > 0 && bytes > maxBytes);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("maxEntries", maxEntries)
+                .add("maxBytes", maxBytes)
+                .add("vendorCaps", vendorCaps)
+                .toString();
+    }
+}
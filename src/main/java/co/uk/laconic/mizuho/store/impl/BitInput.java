@@ -0,0 +1,38 @@
+package co.uk.laconic.mizuho.store.impl;
+
+/**
+ * Reads back the bits written by a BitOutput, in the same order.
+ */
+final class BitInput {
+
+    private final long[] words;
+    private int position;
+
+    BitInput(long[] words) {
+        this.words = words;
+    }
+
+    boolean readBit() {
+        return readBits(1) == 1;
+    }
+
+    /**
+     * Reads `count` bits (between 1 and 64) into the lowest bits of the result
+     */
+    long readBits(int count) {
+        int index = position >>> 6;
+        int used = position & 63;
+        int free = 64 - used;
+        long result;
+        if (count <= free) {
+            result = (words[index] << used) >>> (64 - count);
+        } else {
+            int overflow = count - free;
+            long high = (words[index] << used) >>> used;
+            long low = words[index + 1] >>> (64 - overflow);
+            result = (high << overflow) | low;
+        }
+        position += count;
+        return result;
+    }
+}
@@ -0,0 +1,45 @@
+package co.uk.laconic.mizuho.store.impl;
+
+import java.util.Arrays;
+
+/**
+ * Minimal growable bit buffer used to encode PriceBlocks, bits are written most significant first.
+ */
+final class BitOutput {
+
+    private long[] words = new long[8];
+    private int position;
+
+    void writeBit(boolean bit) {
+        writeBits(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * Writes the lowest `count` bits of `value` (count between 1 and 64)
+     */
+    void writeBits(long value, int count) {
+        if (count < 64) {
+            value &= (1L << count) - 1;
+        }
+        int index = position >>> 6;
+        int free = 64 - (position & 63);
+        if (index + 1 >= words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        if (count <= free) {
+            words[index] |= value << (free - count);
+        } else {
+            int overflow = count - free;
+            words[index] |= value >>> overflow;
+            words[index + 1] |= value << (64 - overflow);
+        }
+        position += count;
+    }
+
+    /**
+     * @return a copy of the written words, trimmed to the bits actually in use
+     */
+    long[] toWords() {
+        return Arrays.copyOf(words, (position + 63) >>> 6);
+    }
+}
@@ -0,0 +1,125 @@
+package co.uk.laconic.mizuho.store.impl;
+
+import co.uk.laconic.mizuho.domain.Price;
+import co.uk.laconic.mizuho.store.StoreBudget;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps a running estimate of what an in memory store holds, so it can be checked against its StoreBudget
+ * on every append without having to walk the store.
+ *
+ * It also provides the lock that stores take while removing prices, which keeps the figures exact.
+ * Appends only ever try to take it, so they are not held up when an eviction is already running,
+ * and queries never take it at all.
+ */
+final class BudgetTracker {
+
+    // rough shallow sizes on a 64 bit jvm with compressed oops
+    private static final long PRICE_BYTES = 24 /* queue node */ + 32 /* price */ + 24 /* instant */;
+    private static final long DOUBLE_BYTES = 16;
+    private static final long BLOCK_BYTES = 40 /* block */ + 2 * 24 /* instants */ + 16 /* array header */ + 8 /* list slot */ + 24 /* queue node */;
+    private static final long STRING_BYTES = 24 /* string */ + 16 /* char array header */;
+
+    /**
+     * Estimated memory taken by a price held as is (the strings are counted too, as they are not shared between messages)
+     */
+    static long footprintOf(Price price) {
+        return PRICE_BYTES
+                + (price.getBid() != null ? DOUBLE_BYTES : 0)
+                + (price.getAsk() != null ? DOUBLE_BYTES : 0)
+                + STRING_BYTES + 2L * price.getVendorId().length()
+                + STRING_BYTES + 2L * price.getInstrumentId().length();
+    }
+
+    /**
+     * Estimated memory taken by a sealed block, the strings are shared by all the prices in it
+     */
+    static long footprintOf(PriceBlock block) {
+        return BLOCK_BYTES
+                + block.sizeInBytes()
+                + STRING_BYTES + 2L * block.getVendorId().length()
+                + STRING_BYTES + 2L * block.getInstrumentId().length();
+    }
+
+    private final StoreBudget budget;
+    private final AtomicLong entries = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> vendorEntries = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    BudgetTracker(StoreBudget budget) {
+        this.budget = budget;
+    }
+
+    StoreBudget getBudget() {
+        return budget;
+    }
+
+    ReentrantLock getEvictionLock() {
+        return evictionLock;
+    }
+
+    void added(String vendorId, long entries, long bytes) {
+        this.entries.addAndGet(entries);
+        this.bytes.addAndGet(bytes);
+        vendorEntries.computeIfAbsent(StoreBudget.vendorKey(vendorId), ignored -> new AtomicLong()).addAndGet(entries);
+    }
+
+    void removed(String vendorId, long entries, long bytes) {
+        added(vendorId, -entries, -bytes);
+    }
+
+    void clear() {
+        entries.set(0);
+        bytes.set(0);
+        vendorEntries.clear();
+    }
+
+    long getEntries() {
+        return entries.get();
+    }
+
+    long getBytes() {
+        return bytes.get();
+    }
+
+    long getVendorEntries(String vendorId) {
+        AtomicLong count = vendorEntries.get(StoreBudget.vendorKey(vendorId));
+        return count != null ? count.get() : 0;
+    }
+
+    boolean isExceeded() {
+        return budget.isExceededBy(entries.get(), bytes.get());
+    }
+
+    boolean isExceeded(String vendorId) {
+        return getVendorExcess(vendorId) > 0;
+    }
+
+    /**
+     * @return whether the store wide limits or the cap of any vendor are exceeded
+     */
+    boolean isAnyExceeded() {
+        return isExceeded() || vendorEntries.keySet().stream().anyMatch(this::isExceeded);
+    }
+
+    /**
+     * @return number of prices held for the vendor above its cap, `0` if within it or not capped
+     */
+    long getVendorExcess(String vendorId) {
+        return budget.getVendorCap(vendorId).map(cap -> Math.max(getVendorEntries(vendorId) - cap, 0)).orElse(0L);
+    }
+
+    /**
+     * @return keys (as in StoreBudget.vendorKey) of the vendors currently over their cap
+     */
+    Set<String> getVendorsOverCap() {
+        return vendorEntries.keySet().stream().filter(this::isExceeded).collect(Collectors.toSet());
+    }
+}
@@ -2,14 +2,18 @@ package co.uk.laconic.mizuho.store.impl;
 
 import co.uk.laconic.mizuho.domain.Price;
 import co.uk.laconic.mizuho.store.PriceStore;
+import co.uk.laconic.mizuho.store.StoreBudget;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 import org.springframework.util.Assert;
 
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
@@ -22,20 +26,36 @@ import java.util.stream.Stream;
  *
  * a ConcurrentLinkedQueue can be be iterated while elements are being added or removed on different threads
  * since it returns a weakly consistent iterator.
+ *
+ * Optionally a StoreBudget can be provided, in which case the oldest prices (first in) are evicted as soon
+ * as an append takes the store over budget, rather than waiting for the next eviction tick.
  */
 @Component
+@ConditionalOnProperty(name = "priceserver.store", havingValue = "embedded", matchIfMissing = true)
 public class EmbeddedPriceStore implements PriceStore {
 
     private static final Logger logger = LoggerFactory.getLogger(EmbeddedPriceStore.class);
     private final Predicate<Price> evictionPredicate;
+    protected final BudgetTracker budget;
     protected final ConcurrentLinkedQueue<Price> store = new ConcurrentLinkedQueue<>();
 
     public EmbeddedPriceStore() {
         this(Duration.ofDays(30));
     }
 
+    @Autowired
+    public EmbeddedPriceStore(StoreBudget budget) {
+        this(Duration.ofDays(30), budget);
+    }
+
     public EmbeddedPriceStore(Duration evictionThreshold) {
+        this(evictionThreshold, StoreBudget.unbounded());
+    }
+
+    public EmbeddedPriceStore(Duration evictionThreshold, StoreBudget budget) {
+        Assert.notNull(budget, "budget must not be null.");
         this.evictionPredicate = price -> price.getTimestamp().isBefore(Instant.now().minus(evictionThreshold));
+        this.budget = new BudgetTracker(budget);
     }
 
     @Override
@@ -55,18 +75,104 @@ public class EmbeddedPriceStore implements PriceStore {
         Assert.notNull(price, "Expected non-null price.");
         logger.debug("Appending price: {}", price);
         store.add(price);
+        budget.added(price.getVendorId(), 1, BudgetTracker.footprintOf(price));
+        if (budget.isExceeded() || budget.isExceeded(price.getVendorId())) {
+            evictOverBudget();
+        }
     }
 
     @Override
     public void evict() {
         logger.info("Evicting entries from cache...");
-        // older entries than this will be removed from the cache
-        store.removeIf(evictionPredicate);
+        budget.getEvictionLock().lock();
+        try {
+            // older entries than this will be removed from the cache
+            removeIf(evictionPredicate, Long.MAX_VALUE);
+        } finally {
+            budget.getEvictionLock().unlock();
+        }
+        // appends that came in meanwhile left it to us
+        evictOverBudget();
         logger.info("Evicting entries from cache completed");
     }
 
     public void clear() {
-        this.store.clear();
+        budget.getEvictionLock().lock();
+        try {
+            this.store.clear();
+            this.budget.clear();
+        } finally {
+            budget.getEvictionLock().unlock();
+        }
+    }
+
+    /**
+     * Evicts the oldest prices until the store and every vendor are back under budget.
+     * If an eviction is already running we leave it to that thread, which checks the budget again after unlocking.
+     */
+    private void evictOverBudget() {
+        while (budget.isAnyExceeded() && budget.getEvictionLock().tryLock()) {
+            boolean removed;
+            try {
+                removed = removeOverBudget();
+            } finally {
+                budget.getEvictionLock().unlock();
+            }
+            if (!removed) {
+                // nothing left we could remove, better over budget than spinning
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return whether anything was removed
+     */
+    private boolean removeOverBudget() {
+        boolean removed = false;
+        while (budget.isExceeded() && removeOldest()) {
+            logger.debug("Evicted oldest price as the store is over budget");
+            removed = true;
+        }
+        for (String vendorKey : budget.getVendorsOverCap()) {
+            removed |= removeIf(ofVendor(vendorKey), budget.getVendorExcess(vendorKey)) > 0;
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the first price in the queue, which is the one that has been held for longest
+     */
+    private boolean removeOldest() {
+        Price oldest = store.poll();
+        if (oldest == null) {
+            return false;
+        }
+        budget.removed(oldest.getVendorId(), 1, BudgetTracker.footprintOf(oldest));
+        return true;
+    }
+
+    /**
+     * Removes up to `limit` prices matching the predicate, starting with the oldest.
+     * Must be called holding the eviction lock so the prices removed are accounted for exactly once.
+     * @return number of prices removed
+     */
+    private long removeIf(Predicate<Price> predicate, long limit) {
+        Iterator<Price> iterator = store.iterator();
+        long removed = 0;
+        while (removed < limit && iterator.hasNext()) {
+            Price price = iterator.next();
+            if (predicate.test(price)) {
+                iterator.remove();
+                budget.removed(price.getVendorId(), 1, BudgetTracker.footprintOf(price));
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private static Predicate<Price> ofVendor(String vendorKey) {
+        return price -> StoreBudget.vendorKey(price.getVendorId()).equals(vendorKey);
     }
 
     private Stream<Price> query(Predicate<Price> predicate) {
@@ -0,0 +1,89 @@
+package co.uk.laconic.mizuho.store.impl;
+
+import co.uk.laconic.mizuho.domain.Price;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+
+/**
+ * Lazily merges prices already sorted newest first with the prices in a set of blocks, into a single iterator
+ * sorted newest first.
+ *
+ * A block is only decoded once the merge reaches its newest price, so consuming the first few prices of a query
+ * only decodes the blocks that overlap with them rather than all of them.
+ */
+final class NewestFirstMerge implements Iterator<Price> {
+
+    static final Comparator<Price> NEWEST_FIRST = Comparator.comparing(Price::getTimestamp).reversed();
+
+    private final PriorityQueue<Source> open = new PriorityQueue<>(Comparator.comparing(source -> source.head, NEWEST_FIRST));
+    private final Iterator<PriceBlock> pending;
+    private PriceBlock nextBlock;
+    // only used to check how lazy the merge is
+    int openedBlocks;
+
+    /**
+     * @param sorted prices sorted newest first
+     * @param blocks blocks to merge them with, in any order
+     */
+    NewestFirstMerge(Iterator<Price> sorted, Collection<PriceBlock> blocks) {
+        this.pending = blocks.stream()
+                .sorted(Comparator.comparing(PriceBlock::getNewest).reversed())
+                .collect(Collectors.toList())
+                .iterator();
+        this.nextBlock = pending.hasNext() ? pending.next() : null;
+        push(sorted);
+    }
+
+    @Override
+    public boolean hasNext() {
+        // any block holding prices at least as new as the current head needs to be part of the merge
+        while (nextBlock != null && (open.isEmpty() || !nextBlock.getNewest().isBefore(open.peek().head.getTimestamp()))) {
+            push(nextBlock.newestFirst());
+            openedBlocks++;
+            nextBlock = pending.hasNext() ? pending.next() : null;
+        }
+        return !open.isEmpty();
+    }
+
+    @Override
+    public Price next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Source source = open.poll();
+        Price price = source.head;
+        if (source.advance()) {
+            open.add(source);
+        }
+        return price;
+    }
+
+    private void push(Iterator<Price> prices) {
+        Source source = new Source(prices);
+        if (source.advance()) {
+            open.add(source);
+        }
+    }
+
+    private static final class Source {
+        private final Iterator<Price> prices;
+        private Price head;
+
+        Source(Iterator<Price> prices) {
+            this.prices = prices;
+        }
+
+        boolean advance() {
+            if (!prices.hasNext()) {
+                return false;
+            }
+            head = prices.next();
+            return true;
+        }
+    }
+}
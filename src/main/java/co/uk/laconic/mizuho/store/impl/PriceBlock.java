@@ -0,0 +1,304 @@
+package co.uk.laconic.mizuho.store.impl;
+
+import co.uk.laconic.mizuho.domain.Price;
+import org.springframework.util.Assert;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Immutable, compressed run of prices for a single vendor and instrument, sorted by timestamp.
+ *
+ * The encoding follows the one described in Facebook's Gorilla paper for time series:
+ * - timestamps are stored as the delta of the delta between consecutive prices, so a regular tick rate costs a bit per price
+ *   (millis are encoded that way and the sub-milli nanos separately, as they are usually zero)
+ * - bid and ask are XOR'ed with the previous value, so only the bits that changed are stored
+ *
+ * Entries can only be read sequentially, they are decoded lazily as the stream is consumed.
+ */
+public final class PriceBlock {
+
+    private final String vendorId;
+    private final String instrumentId;
+    private final int size;
+    private final Instant oldest;
+    private final Instant newest;
+    private final long[] data;
+
+    private PriceBlock(String vendorId, String instrumentId, int size, Instant oldest, Instant newest, long[] data) {
+        this.vendorId = vendorId;
+        this.instrumentId = instrumentId;
+        this.size = size;
+        this.oldest = oldest;
+        this.newest = newest;
+        this.data = data;
+    }
+
+    /**
+     * Encodes the given prices into a new block.
+     * @param prices non empty list of prices, all of them for the same vendor and instrument
+     * @return
+     */
+    public static PriceBlock seal(List<Price> prices) {
+        Assert.notEmpty(prices, "Expected at least one price to seal.");
+        String vendorId = prices.get(0).getVendorId();
+        String instrumentId = prices.get(0).getInstrumentId();
+        Assert.isTrue(prices.stream().allMatch(price -> price.getVendorId().equals(vendorId) && price.getInstrumentId().equals(instrumentId)),
+                "Expected all prices to belong to the same vendor and instrument.");
+
+        List<Price> sorted = prices.stream()
+                .sorted(Comparator.comparing(Price::getTimestamp))
+                .collect(Collectors.toList());
+
+        BitOutput out = new BitOutput();
+        TimestampCodec timestamps = new TimestampCodec();
+        ValueCodec bids = new ValueCodec();
+        ValueCodec asks = new ValueCodec();
+        for (Price price : sorted) {
+            timestamps.write(out, price.getTimestamp());
+            bids.write(out, price.getBid());
+            asks.write(out, price.getAsk());
+        }
+
+        return new PriceBlock(
+                vendorId,
+                instrumentId,
+                sorted.size(),
+                sorted.get(0).getTimestamp(),
+                sorted.get(sorted.size() - 1).getTimestamp(),
+                out.toWords());
+    }
+
+    public String getVendorId() {
+        return vendorId;
+    }
+
+    public String getInstrumentId() {
+        return instrumentId;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Instant getOldest() {
+        return oldest;
+    }
+
+    public Instant getNewest() {
+        return newest;
+    }
+
+    /**
+     * @return size of the encoded prices in bytes
+     */
+    public int sizeInBytes() {
+        return data.length * Long.BYTES;
+    }
+
+    /**
+     * @return the prices in the block, oldest first
+     */
+    public Stream<Price> stream() {
+        Iterator<Price> iterator = new Iterator<Price>() {
+            private final BitInput in = new BitInput(data);
+            private final TimestampCodec timestamps = new TimestampCodec();
+            private final ValueCodec bids = new ValueCodec();
+            private final ValueCodec asks = new ValueCodec();
+            private int read;
+
+            @Override
+            public boolean hasNext() {
+                return read < size;
+            }
+
+            @Override
+            public Price next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                read++;
+                Instant timestamp = timestamps.read(in);
+                Double bid = bids.read(in);
+                Double ask = asks.read(in);
+                return new Price(vendorId, instrumentId, bid, ask, timestamp);
+            }
+        };
+        int characteristics = Spliterator.ORDERED | Spliterator.SIZED | Spliterator.NONNULL | Spliterator.IMMUTABLE;
+        return StreamSupport.stream(Spliterators.spliterator(iterator, size, characteristics), false);
+    }
+
+    /**
+     * The encoding can only be read oldest first, so the block is decoded in full on the first call to `hasNext`
+     * and then walked backwards. Only that block's prices are held at once, and nothing is decoded until then.
+     * @return the prices in the block, newest first
+     */
+    public Iterator<Price> newestFirst() {
+        return new Iterator<Price>() {
+            private Price[] prices;
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                if (prices == null) {
+                    prices = stream().toArray(Price[]::new);
+                    next = prices.length - 1;
+                }
+                return next >= 0;
+            }
+
+            @Override
+            public Price next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return prices[next--];
+            }
+        };
+    }
+
+    /**
+     * Delta of delta encoding of the timestamp millis, the zig-zag encoded value is stored with a prefix for its size:
+     * '0' when the delta is unchanged, '10' + 7 bits, '110' + 9 bits, '1110' + 12 bits and '1111' + 64 bits otherwise.
+     * The first timestamp is stored as is. Nanos within the milli follow as '0' if none, or '1' + 20 bits.
+     */
+    private static final class TimestampCodec {
+
+        private static final int[] BUCKETS = {7, 9, 12};
+        private static final int NANOS_PER_MILLI = 1_000_000;
+
+        private boolean first = true;
+        private long previous;
+        private long previousDelta;
+
+        void write(BitOutput out, Instant timestamp) {
+            long millis = timestamp.toEpochMilli();
+            if (first) {
+                out.writeBits(millis, 64);
+                first = false;
+            } else {
+                long delta = millis - previous;
+                long deltaOfDelta = delta - previousDelta;
+                long zigzag = (deltaOfDelta << 1) ^ (deltaOfDelta >> 63);
+                writeDeltaOfDelta(out, zigzag);
+                previousDelta = delta;
+            }
+            previous = millis;
+
+            int nanos = timestamp.getNano() % NANOS_PER_MILLI;
+            out.writeBit(nanos != 0);
+            if (nanos != 0) {
+                out.writeBits(nanos, 20);
+            }
+        }
+
+        Instant read(BitInput in) {
+            if (first) {
+                previous = in.readBits(64);
+                first = false;
+            } else {
+                long zigzag = readDeltaOfDelta(in);
+                long deltaOfDelta = (zigzag >>> 1) ^ -(zigzag & 1);
+                previousDelta += deltaOfDelta;
+                previous += previousDelta;
+            }
+            long nanos = in.readBit() ? in.readBits(20) : 0;
+            return Instant.ofEpochMilli(previous).plusNanos(nanos);
+        }
+
+        private static void writeDeltaOfDelta(BitOutput out, long zigzag) {
+            if (zigzag == 0) {
+                out.writeBit(false);
+                return;
+            }
+            for (int bits : BUCKETS) {
+                out.writeBit(true);
+                if (zigzag < (1L << bits)) {
+                    out.writeBit(false);
+                    out.writeBits(zigzag, bits);
+                    return;
+                }
+            }
+            out.writeBit(true);
+            out.writeBits(zigzag, 64);
+        }
+
+        private static long readDeltaOfDelta(BitInput in) {
+            if (!in.readBit()) {
+                return 0;
+            }
+            for (int bits : BUCKETS) {
+                if (!in.readBit()) {
+                    return in.readBits(bits);
+                }
+            }
+            return in.readBits(64);
+        }
+    }
+
+    /**
+     * XOR encoding of doubles against the previous value:
+     * '0' when unchanged, '10' + meaningful bits when they fit in the previous window of leading/trailing zeros,
+     * '11' + 6 bits of leading zeros + 6 bits of length + meaningful bits otherwise.
+     * Every value is preceded by a presence bit since prices may come without bid or ask.
+     */
+    private static final class ValueCodec {
+
+        private long previous;
+        private int leading = -1;
+        private int trailing;
+
+        void write(BitOutput out, Double value) {
+            out.writeBit(value != null);
+            if (value == null) {
+                return;
+            }
+            long bits = Double.doubleToRawLongBits(value);
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.writeBit(false);
+                return;
+            }
+            out.writeBit(true);
+
+            int valueLeading = Long.numberOfLeadingZeros(xor);
+            int valueTrailing = Long.numberOfTrailingZeros(xor);
+            if (leading >= 0 && valueLeading >= leading && valueTrailing >= trailing) {
+                out.writeBit(false);
+                out.writeBits(xor >>> trailing, 64 - leading - trailing);
+            } else {
+                int meaningful = 64 - valueLeading - valueTrailing;
+                out.writeBit(true);
+                out.writeBits(valueLeading, 6);
+                out.writeBits(meaningful - 1, 6);
+                out.writeBits(xor >>> valueTrailing, meaningful);
+                leading = valueLeading;
+                trailing = valueTrailing;
+            }
+        }
+
+        Double read(BitInput in) {
+            if (!in.readBit()) {
+                return null;
+            }
+            if (in.readBit()) {
+                if (in.readBit()) {
+                    leading = (int) in.readBits(6);
+                    int meaningful = (int) in.readBits(6) + 1;
+                    trailing = 64 - leading - meaningful;
+                }
+                previous ^= in.readBits(64 - leading - trailing) << trailing;
+            }
+            return Double.longBitsToDouble(previous);
+        }
+    }
+}
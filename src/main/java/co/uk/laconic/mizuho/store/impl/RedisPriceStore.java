@@ -0,0 +1,446 @@
+package co.uk.laconic.mizuho.store.impl;
+
+import co.uk.laconic.mizuho.domain.Price;
+import co.uk.laconic.mizuho.store.PriceStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+
+import javax.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * PriceStore backed by Redis (or anything speaking its protocol), so prices can be shared between instances.
+ *
+ * Prices are kept in a sorted set per vendor and instrument, scored by their timestamp, along with sets indexing
+ * those by vendor and by instrument:
+ *
+ * {prefix}:series:{vendor}:{instrument}  ==> sorted set of prices (as json) by timestamp millis
+ * {prefix}:vendors:{vendor}              ==> set of series keys
+ * {prefix}:instruments:{instrument}      ==> set of series keys
+ * {prefix}:series                        ==> set of all series keys, used when evicting
+ *
+ * Writes are pipelined so a price (or a batch of them) costs a single round trip, and eviction is a range delete
+ * by score on every series. Series left empty by the eviction are removed from the indexes.
+ *
+ * Series that have been read recently are held in a local near-cache, bounded by the number of prices it holds,
+ * so a series too large for it is never cached. Every write (or eviction that removed something) publishes the
+ * series it changed on `{prefix}:invalidations` so all the instances drop their local copy.
+ * If the subscription is lost the near-cache is cleared, as invalidations could have been missed, and nothing is
+ * cached until it is back.
+ *
+ * Memory is expected to be bounded through the Redis `maxmemory` settings, so no StoreBudget is applied here.
+ */
+@Component
+@ConditionalOnProperty(name = "priceserver.store", havingValue = "redis")
+public class RedisPriceStore implements PriceStore, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisPriceStore.class);
+    private final JedisPool pool;
+    private final ObjectMapper json = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private final Duration evictionThreshold;
+    private final Predicate<Price> evictionPredicate;
+    private final String prefix;
+    private final String invalidations;
+    protected final Cache<String, List<Price>> nearCache;
+    // bumped whenever a series is invalidated, so a series fetched while it changed is not cached stale
+    private final ConcurrentMap<String, Long> versions = new ConcurrentHashMap<>();
+    // bumped when the whole near-cache is dropped, as when the subscription is lost or back
+    private final AtomicLong epoch = new AtomicLong();
+    private final InvalidationListener listener;
+
+    public RedisPriceStore(URI uri) {
+        this(uri, 100_000);
+    }
+
+    @Autowired
+    public RedisPriceStore(
+            @Value("${priceserver.redis.uri:redis://localhost:6379}") URI uri,
+            @Value("${priceserver.redis.near-cache-max-prices:100000}") long nearCacheMaxPrices) {
+        this(uri, Duration.ofDays(30), nearCacheMaxPrices, "prices");
+    }
+
+    /**
+     * @param uri where redis is running, as in `redis://host:port/database`
+     * @param evictionThreshold prices older than this are not returned and removed when evicting
+     * @param nearCacheMaxPrices maximum number of prices held locally, across all the cached series
+     * @param prefix namespace for the keys, so several stores can share the same database
+     */
+    public RedisPriceStore(URI uri, Duration evictionThreshold, long nearCacheMaxPrices, String prefix) {
+        this.pool = new JedisPool(uri);
+        this.evictionThreshold = evictionThreshold;
+        this.evictionPredicate = price -> price.getTimestamp().isBefore(Instant.now().minus(evictionThreshold));
+        this.prefix = prefix;
+        this.invalidations = prefix + ":invalidations";
+        this.nearCache = CacheBuilder.newBuilder()
+                .maximumWeight(nearCacheMaxPrices)
+                .<String, List<Price>>weigher((seriesKey, prices) -> prices.size())
+                .build();
+        this.listener = new InvalidationListener(uri);
+        this.listener.start();
+    }
+
+    @Override
+    public Stream<Price> getByVendor(String vendorId) {
+        Assert.notNull(vendorId, "vendorId must not be null.");
+        return query(prefix + ":vendors:" + key(vendorId), price -> key(price.getVendorId()).equals(key(vendorId)));
+    }
+
+    @Override
+    public Stream<Price> getByInstrument(String instrumentId) {
+        Assert.notNull(instrumentId, "instrumentId must not be null.");
+        return query(prefix + ":instruments:" + key(instrumentId), price -> key(price.getInstrumentId()).equals(key(instrumentId)));
+    }
+
+    @Override
+    public void append(Price price) {
+        Assert.notNull(price, "Expected non-null price.");
+        appendAll(Collections.singletonList(price));
+    }
+
+    @Override
+    public void appendAll(Collection<Price> prices) {
+        Assert.notNull(prices, "Expected non-null prices.");
+        Assert.noNullElements(prices.toArray(), "Expected non-null prices.");
+        logger.debug("Appending {} prices", prices.size());
+
+        Map<String, List<Price>> series = prices.stream().collect(Collectors.groupingBy(this::seriesOf));
+        try (Jedis jedis = pool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            series.forEach((seriesKey, seriesPrices) -> {
+                Price first = seriesPrices.get(0);
+                Map<String, Double> members = new HashMap<>();
+                seriesPrices.forEach(price -> members.put(toJson(price), (double) price.getTimestamp().toEpochMilli()));
+                pipeline.zadd(seriesKey, members);
+                pipeline.sadd(prefix + ":vendors:" + key(first.getVendorId()), seriesKey);
+                pipeline.sadd(prefix + ":instruments:" + key(first.getInstrumentId()), seriesKey);
+                pipeline.sadd(prefix + ":series", seriesKey);
+                pipeline.publish(invalidations, seriesKey);
+            });
+            pipeline.sync();
+        }
+        // no need to wait for our own invalidations to come back
+        invalidate(series.keySet());
+    }
+
+    @Override
+    public void evict() {
+        logger.info("Evicting entries from cache...");
+        String before = "(" + Instant.now().minus(evictionThreshold).toEpochMilli();
+        try (Jedis jedis = pool.getResource()) {
+            Set<String> series = jedis.smembers(prefix + ":series");
+            Map<String, Response<Long>> removed = new HashMap<>();
+            Map<String, Response<Long>> remaining = new HashMap<>();
+            Pipeline pipeline = jedis.pipelined();
+            series.forEach(seriesKey -> {
+                removed.put(seriesKey, pipeline.zremrangeByScore(seriesKey, "-inf", before));
+                remaining.put(seriesKey, pipeline.zcard(seriesKey));
+            });
+            pipeline.sync();
+
+            Set<String> changed = keysWhere(removed, count -> count > 0);
+            if (!changed.isEmpty()) {
+                Pipeline publish = jedis.pipelined();
+                changed.forEach(seriesKey -> publish.publish(invalidations, seriesKey));
+                publish.sync();
+                invalidate(changed);
+            }
+            unindex(jedis, keysWhere(remaining, count -> count == 0));
+        }
+        logger.info("Evicting entries from cache completed");
+    }
+
+    /**
+     * Removes every key in the store's namespace, only meant to be used in tests
+     */
+    public void clear() {
+        try (Jedis jedis = pool.getResource()) {
+            Set<String> keys = jedis.keys(prefix + ":*");
+            if (!keys.isEmpty()) {
+                jedis.del(keys.toArray(new String[0]));
+            }
+        }
+        invalidate(null);
+    }
+
+    @Override
+    @PreDestroy
+    public void close() {
+        listener.close();
+        pool.close();
+    }
+
+    /**
+     * Removes emptied series from the indexes, so they don't cost a round trip on every query and eviction.
+     *
+     * A price could be appended to one of them meanwhile, since appends add to the series before indexing it
+     * they are checked once more after being removed and indexed again if no longer empty.
+     */
+    private void unindex(Jedis jedis, Set<String> emptied) {
+        if (emptied.isEmpty()) {
+            return;
+        }
+        Map<String, Response<Long>> remaining = new HashMap<>();
+        Pipeline pipeline = jedis.pipelined();
+        emptied.forEach(seriesKey -> {
+            indexesOf(seriesKey).forEach(index -> pipeline.srem(index, seriesKey));
+            remaining.put(seriesKey, pipeline.zcard(seriesKey));
+        });
+        pipeline.sync();
+
+        Set<String> refilled = keysWhere(remaining, count -> count > 0);
+        if (!refilled.isEmpty()) {
+            Pipeline reindex = jedis.pipelined();
+            refilled.forEach(seriesKey -> indexesOf(seriesKey).forEach(index -> reindex.sadd(index, seriesKey)));
+            reindex.sync();
+        }
+        logger.debug("Removed {} empty series from the indexes", emptied.size() - refilled.size());
+    }
+
+    /**
+     * Reads the series listed in the given index, taking them from the near-cache when possible
+     * and fetching all the missing ones in a single round trip.
+     */
+    private Stream<Price> query(String index, Predicate<Price> predicate) {
+        Map<String, List<Price>> found = new HashMap<>();
+        Map<String, Response<Set<String>>> fetched = new HashMap<>();
+        Map<String, Long> versionsBefore = new HashMap<>();
+        long epochBefore = epoch.get();
+        try (Jedis jedis = pool.getResource()) {
+            Set<String> series = jedis.smembers(index);
+            found.putAll(nearCache.getAllPresent(series));
+
+            String since = String.valueOf(Instant.now().minus(evictionThreshold).toEpochMilli());
+            Pipeline pipeline = jedis.pipelined();
+            series.stream()
+                    .filter(seriesKey -> !found.containsKey(seriesKey))
+                    .forEach(seriesKey -> {
+                        versionsBefore.put(seriesKey, versionOf(seriesKey));
+                        fetched.put(seriesKey, pipeline.zrangeByScore(seriesKey, since, "+inf"));
+                    });
+            pipeline.sync();
+
+            fetched.forEach((seriesKey, response) ->
+                    found.put(seriesKey, response.get().stream().map(this::fromJson).collect(Collectors.toList())));
+        }
+        if (listener.isListening()) {
+            versionsBefore.forEach((seriesKey, version) -> {
+                if (isUnchanged(seriesKey, version, epochBefore)) {
+                    nearCache.put(seriesKey, found.get(seriesKey));
+                    // an invalidation could have landed between the check and the put
+                    if (!isUnchanged(seriesKey, version, epochBefore)) {
+                        nearCache.invalidate(seriesKey);
+                    }
+                }
+            });
+        }
+        return found.values().stream()
+                .flatMap(List::stream)
+                .filter(predicate.and(evictionPredicate.negate()))
+                .sorted(Comparator.comparing(Price::getTimestamp).reversed());
+    }
+
+    /**
+     * Drops the given series from the near-cache, or all of them when null
+     */
+    private void invalidate(Iterable<String> series) {
+        if (series == null) {
+            epoch.incrementAndGet();
+            nearCache.invalidateAll();
+        } else {
+            series.forEach(seriesKey -> versions.merge(seriesKey, 1L, Long::sum));
+            nearCache.invalidateAll(series);
+        }
+    }
+
+    private long versionOf(String seriesKey) {
+        return versions.getOrDefault(seriesKey, 0L);
+    }
+
+    private boolean isUnchanged(String seriesKey, long version, long epochBefore) {
+        return epoch.get() == epochBefore && versionOf(seriesKey) == version;
+    }
+
+    private String seriesOf(Price price) {
+        return prefix + ":series:" + key(price.getVendorId()) + ":" + key(price.getInstrumentId());
+    }
+
+    /**
+     * The index sets a series key is listed in, the vendor and instrument are read back from the key itself
+     */
+    private List<String> indexesOf(String seriesKey) {
+        String ids = seriesKey.substring((prefix + ":series:").length());
+        int separator = ids.indexOf(':');
+        return Arrays.asList(
+                prefix + ":series",
+                prefix + ":vendors:" + ids.substring(0, separator),
+                prefix + ":instruments:" + ids.substring(separator + 1));
+    }
+
+    private static Set<String> keysWhere(Map<String, Response<Long>> responses, LongPredicate predicate) {
+        return responses.entrySet().stream()
+                .filter(entry -> predicate.test(entry.getValue().get()))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Ids are matched regardless of case and surrounding whitespace,
+     * `:` is escaped so a series key can be split back into its vendor and instrument.
+     */
+    private static String key(String id) {
+        return id.trim().toLowerCase(Locale.ROOT).replace("%", "%25").replace(":", "%3a");
+    }
+
+    private String toJson(Price price) {
+        try {
+            return json.writeValueAsString(price);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Price fromJson(String value) {
+        try {
+            return json.readValue(value, Price.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Subscribes to the invalidations channel on its own connection (as subscribing blocks it)
+     * and drops the series it is notified about from the near-cache.
+     */
+    private class InvalidationListener extends JedisPubSub implements Runnable {
+
+        private final URI uri;
+        private final Thread thread;
+        private boolean running = true;
+        private volatile boolean listening;
+        private Jedis connection;
+
+        InvalidationListener(URI uri) {
+            this.uri = uri;
+            this.thread = new Thread(this, "redis-invalidations-" + prefix);
+            this.thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            while (isRunning()) {
+                try {
+                    if (connect()) {
+                        connection.subscribe(this, invalidations);
+                    }
+                } catch (JedisException e) {
+                    listening = false;
+                    if (isRunning()) {
+                        logger.warn("Lost subscription to `{}`, clearing the near-cache and retrying", invalidations, e);
+                        invalidate(null);
+                        sleep();
+                    }
+                } finally {
+                    // whatever made us leave, nothing gets cached until we are subscribed again
+                    listening = false;
+                    if (connection != null) {
+                        connection.close();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            listening = true;
+            // anything cached before a reconnection may have missed its invalidation
+            invalidate(null);
+        }
+
+        @Override
+        public void onMessage(String channel, String seriesKey) {
+            invalidate(Collections.singleton(seriesKey));
+        }
+
+        /**
+         * Closing the connection makes the subscription fail straight away, whatever state it is in
+         */
+        synchronized void close() {
+            running = false;
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+
+        /**
+         * Checks whether we are still running while holding the lock,
+         * so `close` either finds the connection to close or we stop here.
+         */
+        private synchronized boolean connect() {
+            connection = new Jedis(uri);
+            if (running) {
+                connection.connect();
+            }
+            return running;
+        }
+
+        boolean isListening() {
+            return listening;
+        }
+
+        private synchronized boolean isRunning() {
+            return running;
+        }
+
+        private void sleep() {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+            }
+        }
+    }
+}
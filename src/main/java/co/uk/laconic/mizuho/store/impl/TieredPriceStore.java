@@ -0,0 +1,347 @@
+package co.uk.laconic.mizuho.store.impl;
+
+import co.uk.laconic.mizuho.domain.Price;
+import co.uk.laconic.mizuho.store.PriceStore;
+import co.uk.laconic.mizuho.store.StoreBudget;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * In memory cache that keeps recent prices as they are (the hot tier, same as the EmbeddedPriceStore)
+ * and compresses older ones into PriceBlocks (the cold tier), as those are rarely queried but take most of the memory.
+ *
+ * Prices are sealed when eviction runs, once the whole `blockSpan` they fall into is older than the `sealThreshold`.
+ * That way blocks are reasonably sized even if eviction runs every minute, which matters for the compression ratio.
+ * Blocks are indexed by vendor and instrument (case insensitive), and dropped once all their prices are past the
+ * eviction threshold, until then the older prices in a block are filtered out when querying.
+ *
+ * Queries sort the matching prices of the hot tier and merge the blocks in as the results are consumed (newest first),
+ * so a caller that only reads the most recent prices doesn't pay for decoding the whole cold tier.
+ *
+ * Like the ConcurrentLinkedQueue, queries are weakly consistent: a price being sealed can show up in both tiers
+ * for the brief moment between its block being published and it being removed from the hot tier.
+ *
+ * When a StoreBudget is provided, appends that take the store over budget evict the oldest prices in the cold tier
+ * first and then the oldest in the hot tier, until the store is back under budget. A block holding more prices than
+ * need to go is sealed again without its oldest ones, rather than dropped as a whole.
+ */
+@Component
+@ConditionalOnProperty(name = "priceserver.store", havingValue = "tiered")
+public class TieredPriceStore implements PriceStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(TieredPriceStore.class);
+    private final Duration evictionThreshold;
+    private final Duration sealThreshold;
+    private final Duration blockSpan;
+    private final Predicate<Price> evictionPredicate;
+    protected final BudgetTracker budget;
+    protected final ConcurrentLinkedQueue<Price> hot = new ConcurrentLinkedQueue<>();
+    // vendor => instrument => blocks
+    protected final ConcurrentMap<String, ConcurrentMap<String, List<PriceBlock>>> cold = new ConcurrentHashMap<>();
+    // all the blocks in the order they were sealed, which is roughly oldest first (trimmed blocks go back to the front)
+    private final ConcurrentLinkedDeque<PriceBlock> sealed = new ConcurrentLinkedDeque<>();
+
+    public TieredPriceStore() {
+        this(StoreBudget.unbounded());
+    }
+
+    @Autowired
+    public TieredPriceStore(StoreBudget budget) {
+        this(Duration.ofDays(30), Duration.ofDays(1), Duration.ofHours(1), budget);
+    }
+
+    public TieredPriceStore(Duration evictionThreshold, Duration sealThreshold, Duration blockSpan) {
+        this(evictionThreshold, sealThreshold, blockSpan, StoreBudget.unbounded());
+    }
+
+    public TieredPriceStore(Duration evictionThreshold, Duration sealThreshold, Duration blockSpan, StoreBudget budget) {
+        Assert.notNull(budget, "budget must not be null.");
+        Assert.isTrue(sealThreshold.compareTo(evictionThreshold) < 0, "sealThreshold must be lower than the evictionThreshold.");
+        Assert.isTrue(!blockSpan.isNegative() && !blockSpan.isZero(), "blockSpan must be positive.");
+        this.evictionThreshold = evictionThreshold;
+        this.sealThreshold = sealThreshold;
+        this.blockSpan = blockSpan;
+        this.evictionPredicate = price -> isEvictable(price.getTimestamp());
+        this.budget = new BudgetTracker(budget);
+    }
+
+    @Override
+    public Stream<Price> getByVendor(String vendorId) {
+        Assert.notNull(vendorId, "vendorId must not be null.");
+        Stream<PriceBlock> blocks = Optional.ofNullable(cold.get(key(vendorId)))
+                .map(instruments -> instruments.values().stream().flatMap(List::stream))
+                .orElseGet(Stream::empty);
+        return query(price -> price.getVendorId().equalsIgnoreCase(vendorId.trim()), blocks);
+    }
+
+    @Override
+    public Stream<Price> getByInstrument(String instrumentId) {
+        Assert.notNull(instrumentId, "instrumentId must not be null.");
+        Stream<PriceBlock> blocks = cold.values().stream()
+                .map(instruments -> instruments.getOrDefault(key(instrumentId), Collections.emptyList()))
+                .flatMap(List::stream);
+        return query(price -> price.getInstrumentId().equalsIgnoreCase(instrumentId.trim()), blocks);
+    }
+
+    @Override
+    public void append(Price price) {
+        Assert.notNull(price, "Expected non-null price.");
+        logger.debug("Appending price: {}", price);
+        hot.add(price);
+        budget.added(price.getVendorId(), 1, BudgetTracker.footprintOf(price));
+        if (budget.isExceeded() || budget.isExceeded(price.getVendorId())) {
+            evictOverBudget();
+        }
+    }
+
+    /**
+     * Drops the blocks and prices past the eviction threshold, then seals the prices that are old enough.
+     * Only one eviction runs at a time, appends and queries carry on while it does.
+     */
+    @Override
+    public void evict() {
+        logger.info("Evicting entries from cache...");
+        budget.getEvictionLock().lock();
+        try {
+            removeBlocksIf(block -> isEvictable(block.getNewest()), Long.MAX_VALUE);
+            removeIf(evictionPredicate, Long.MAX_VALUE);
+            seal();
+        } finally {
+            budget.getEvictionLock().unlock();
+        }
+        // appends that came in while sealing left it to us
+        evictOverBudget();
+        logger.info("Evicting entries from cache completed");
+    }
+
+    public void clear() {
+        budget.getEvictionLock().lock();
+        try {
+            this.hot.clear();
+            this.cold.clear();
+            this.sealed.clear();
+            this.budget.clear();
+        } finally {
+            budget.getEvictionLock().unlock();
+        }
+    }
+
+    /**
+     * Evicts the oldest blocks and prices until the store and every vendor are back under budget.
+     * If an eviction is already running we leave it to that thread, which checks the budget again after unlocking.
+     */
+    private void evictOverBudget() {
+        while (budget.isAnyExceeded() && budget.getEvictionLock().tryLock()) {
+            boolean removed;
+            try {
+                removed = removeOverBudget();
+            } finally {
+                budget.getEvictionLock().unlock();
+            }
+            if (!removed) {
+                // nothing left we could remove, better over budget than spinning
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return whether anything was removed
+     */
+    private boolean removeOverBudget() {
+        boolean removed = false;
+        while (budget.isExceeded() && (trimOldestBlock(block -> true, this::excessOf) > 0 || removeIf(price -> true, 1) > 0)) {
+            logger.debug("Evicted oldest entries as the store is over budget");
+            removed = true;
+        }
+        for (String vendorKey : budget.getVendorsOverCap()) {
+            while (budget.isExceeded(vendorKey) && trimOldestBlock(
+                    block -> StoreBudget.vendorKey(block.getVendorId()).equals(vendorKey),
+                    block -> budget.getVendorExcess(vendorKey)) > 0) {
+                logger.debug("Evicted oldest sealed prices of `{}` as it is over budget", vendorKey);
+                removed = true;
+            }
+            long excess = budget.getVendorExcess(vendorKey);
+            if (excess > 0) {
+                removed |= removeIf(price -> StoreBudget.vendorKey(price.getVendorId()).equals(vendorKey), excess) > 0;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes up to `limit` prices from the hot tier matching the predicate, starting with the oldest.
+     * Must be called holding the eviction lock so the prices removed are accounted for exactly once.
+     * @return number of prices removed
+     */
+    private long removeIf(Predicate<Price> predicate, long limit) {
+        Iterator<Price> iterator = hot.iterator();
+        long removed = 0;
+        while (removed < limit && iterator.hasNext()) {
+            Price price = iterator.next();
+            if (predicate.test(price)) {
+                iterator.remove();
+                budget.removed(price.getVendorId(), 1, BudgetTracker.footprintOf(price));
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the oldest prices of the oldest block matching the predicate, as many as `excess` asks for that block.
+     * If that is not the whole block, what is left of it is sealed into a new block which replaces it.
+     * Must be called holding the eviction lock.
+     * @return number of prices removed
+     */
+    private long trimOldestBlock(Predicate<PriceBlock> predicate, ToLongFunction<PriceBlock> excess) {
+        for (PriceBlock block : sealed) {
+            if (!predicate.test(block)) {
+                continue;
+            }
+            long count = Math.max(excess.applyAsLong(block), 1);
+            if (count >= block.size()) {
+                removeBlocksIf(candidate -> candidate == block, 1);
+                return block.size();
+            }
+            PriceBlock trimmed = PriceBlock.seal(block.stream().skip(count).collect(Collectors.toList()));
+            List<PriceBlock> series = cold.get(key(block.getVendorId())).get(key(block.getInstrumentId()));
+            series.set(series.indexOf(block), trimmed);
+            sealed.remove(block);
+            sealed.addFirst(trimmed);
+            budget.removed(block.getVendorId(), block.size(), BudgetTracker.footprintOf(block));
+            budget.added(trimmed.getVendorId(), trimmed.size(), BudgetTracker.footprintOf(trimmed));
+            return count;
+        }
+        return 0;
+    }
+
+    /**
+     * Number of prices over the store wide limits, the bytes being turned into prices by the block's average footprint
+     */
+    private long excessOf(PriceBlock block) {
+        StoreBudget limits = budget.getBudget();
+        long entries = limits.getMaxEntries() > 0 ? budget.getEntries() - limits.getMaxEntries() : 0;
+        long bytes = limits.getMaxBytes() > 0 ? budget.getBytes() - limits.getMaxBytes() : 0;
+        long footprint = BudgetTracker.footprintOf(block);
+        long pricesForBytes = bytes > 0 ? (bytes * block.size() + footprint - 1) / footprint : 0;
+        return Math.max(entries, pricesForBytes);
+    }
+
+    /**
+     * Same as `removeIf` but for the blocks in the cold tier
+     * @return number of blocks removed
+     */
+    private long removeBlocksIf(Predicate<PriceBlock> predicate, long limit) {
+        Iterator<PriceBlock> iterator = sealed.iterator();
+        long removed = 0;
+        while (removed < limit && iterator.hasNext()) {
+            PriceBlock block = iterator.next();
+            if (predicate.test(block)) {
+                iterator.remove();
+                cold.get(key(block.getVendorId())).get(key(block.getInstrumentId())).remove(block);
+                budget.removed(block.getVendorId(), block.size(), BudgetTracker.footprintOf(block));
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Moves the prices in every `blockSpan` that is entirely older than the `sealThreshold` into the cold tier
+     */
+    private void seal() {
+        long span = blockSpan.toMillis();
+        Instant sealBefore = Instant.ofEpochMilli(Math.floorDiv(Instant.now().minus(sealThreshold).toEpochMilli(), span) * span);
+
+        Map<List<Object>, List<Price>> series = hot.stream()
+                .filter(price -> price.getTimestamp().isBefore(sealBefore))
+                .collect(Collectors.groupingBy(price -> seriesOf(price, span)));
+        if (series.isEmpty()) {
+            return;
+        }
+
+        List<PriceBlock> blocks = series.values().stream()
+                .map(PriceBlock::seal)
+                .sorted(Comparator.comparing(PriceBlock::getOldest))
+                .collect(Collectors.toList());
+        long bytes = 0;
+        for (PriceBlock block : blocks) {
+            cold.computeIfAbsent(key(block.getVendorId()), ignored -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(key(block.getInstrumentId()), ignored -> new CopyOnWriteArrayList<>())
+                    .add(block);
+            sealed.add(block);
+            budget.added(block.getVendorId(), block.size(), BudgetTracker.footprintOf(block));
+            bytes += block.sizeInBytes();
+        }
+
+        Set<Price> moved = Collections.newSetFromMap(new IdentityHashMap<>());
+        series.values().forEach(moved::addAll);
+        removeIf(moved::contains, Long.MAX_VALUE);
+        logger.info("Sealed {} prices into {} blocks of {} bytes in total", moved.size(), blocks.size(), bytes);
+    }
+
+    /**
+     * Only the matching prices in the hot tier are sorted up front, the blocks are merged in lazily
+     * so they are only decoded as far as the stream is consumed.
+     */
+    private Stream<Price> query(Predicate<Price> predicate, Stream<PriceBlock> blocks) {
+        Iterator<Price> recent = hot.stream()
+                .filter(predicate.and(evictionPredicate.negate()))
+                .sorted(NewestFirstMerge.NEWEST_FIRST)
+                .iterator();
+        List<PriceBlock> sealed = blocks
+                .filter(block -> !isEvictable(block.getNewest()))
+                .collect(Collectors.toList());
+        NewestFirstMerge merge = new NewestFirstMerge(recent, sealed);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merge, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .filter(predicate.and(evictionPredicate.negate()));
+    }
+
+    private boolean isEvictable(Instant timestamp) {
+        return timestamp.isBefore(Instant.now().minus(evictionThreshold));
+    }
+
+    /**
+     * Prices are sealed by vendor, instrument and the `blockSpan` they fall into
+     */
+    private static List<Object> seriesOf(Price price, long span) {
+        return Arrays.asList(
+                price.getVendorId(),
+                price.getInstrumentId(),
+                Math.floorDiv(price.getTimestamp().toEpochMilli(), span));
+    }
+
+    private static String key(String id) {
+        return id.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,80 @@
+package co.uk.laconic.mizuho.integration.routes;
+
+import co.uk.laconic.mizuho.domain.Price;
+import co.uk.laconic.mizuho.events.PriceEvent;
+import co.uk.laconic.mizuho.store.PriceStore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.camel.EndpointInject;
+import org.apache.camel.Produce;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.test.spring.CamelSpringBootRunner;
+import org.apache.camel.test.spring.MockEndpoints;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(CamelSpringBootRunner.class)
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {"priceserver.mailbox.batch-size=2", "priceserver.mailbox.batch-timeout=60000"})
+@MockEndpoints
+@DirtiesContext
+public class InboundPricesRouteBatchingTest {
+
+    @MockBean
+    private PriceStore store;
+
+    @Autowired
+    @Produce(uri = "jms:queue:prices")
+    private ProducerTemplate producer;
+
+    @EndpointInject(uri = "mock:jms:queue:deadletters")
+    protected MockEndpoint deadletters;
+
+    @Autowired
+    private ObjectMapper json;
+
+    @Test
+    public void whenABatchOfPriceEventsIsReceived_ThenStoreIsNotifiedOnceForAllOfThem() throws JsonProcessingException {
+        PriceEvent first = new PriceEvent("test", "first", 0.0, 0.0, Instant.now());
+        PriceEvent second = new PriceEvent("test", "second", 0.0, 0.0, Instant.now());
+        producer.sendBody("jms:queue:prices", json.writeValueAsString(first));
+        producer.sendBody("jms:queue:prices", json.writeValueAsString(second));
+
+        await().untilAsserted(() -> verify(store).appendAll(Arrays.asList(Price.fromEvent(first), Price.fromEvent(second))));
+        verify(store, never()).append(any());
+    }
+
+    @Test
+    public void whenTheStoreFailsToTakeABatch_ThenEachEventGoesToDeadLettersAsItWasReceived() throws Exception {
+        doThrow(new IllegalStateException("store is down")).when(store).appendAll(anyCollection());
+        deadletters.expectedMessageCount(2);
+        PriceEvent first = new PriceEvent("test", "first", 1.0, 2.0, Instant.now());
+        PriceEvent second = new PriceEvent("test", "second", 3.0, 4.0, Instant.now());
+
+        producer.sendBody("jms:queue:prices", json.writeValueAsString(first));
+        producer.sendBody("jms:queue:prices", json.writeValueAsString(second));
+
+        deadletters.assertIsSatisfied();
+        // they can be sent back to the mailbox as they are
+        assertThat(deadletters.getReceivedExchanges())
+                .extracting(exchange -> Price.fromEvent(json.readValue(exchange.getIn().getBody(String.class), PriceEvent.class)))
+                .containsExactly(Price.fromEvent(first), Price.fromEvent(second));
+    }
+}
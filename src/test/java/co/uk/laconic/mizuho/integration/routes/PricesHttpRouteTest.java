@@ -0,0 +1,65 @@
+package co.uk.laconic.mizuho.integration.routes;
+
+import co.uk.laconic.mizuho.domain.Price;
+import co.uk.laconic.mizuho.store.impl.EmbeddedPriceStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.apache.camel.RoutesBuilder;
+import org.apache.camel.test.AvailablePortFinder;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * Hits the endpoints of the lightweight mode over http, as a consumer would.
+ * (assertj is referenced explicitly since CamelTestSupport inherits junit's own `assertThat`)
+ */
+public class PricesHttpRouteTest extends CamelTestSupport {
+
+    private final int port = AvailablePortFinder.getNextAvailable();
+    private final EmbeddedPriceStore store = new EmbeddedPriceStore();
+    private final ObjectMapper json = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    @Override
+    protected RoutesBuilder createRouteBuilder() {
+        return new PricesHttpRoute(store, json, "localhost", port);
+    }
+
+    @Test
+    public void whenNoPricesForVendor_ThenAnEmptyResponseIsReturned() throws IOException {
+        Assertions.assertThat(get("prices/vendors/unknown")).isEmpty();
+    }
+
+    @Test
+    public void whenNoPricesForInstrument_ThenAnEmptyResponseIsReturned() throws IOException {
+        Assertions.assertThat(get("prices/instruments/unknown")).isEmpty();
+    }
+
+    @Test
+    public void whenPricesAreStored_ThenTheyCanBeReadBackByVendorOrInstrument() throws IOException {
+        Price bloomberg_AAPL = new Price("Bloomberg", "AAPL", 1.0, 1.0, Instant.now().minusSeconds(10));
+        Price bloomberg_MSFT = new Price("Bloomberg", "MSFT", 1.0, 1.0, Instant.now().minusSeconds(5));
+        Price reuters_AAPL = new Price("Reuters", "AAPL", 1.0, 1.0, Instant.now());
+        store.append(bloomberg_AAPL);
+        store.append(bloomberg_MSFT);
+        store.append(reuters_AAPL);
+
+        Assertions.assertThat(get("prices/vendors/Bloomberg")).containsExactly(bloomberg_MSFT, bloomberg_AAPL);
+        Assertions.assertThat(get("prices/instruments/AAPL")).containsExactly(reuters_AAPL, bloomberg_AAPL);
+    }
+
+    //
+    // helper methods
+    //
+
+    private Price[] get(String path) throws IOException {
+        String body = template.requestBody("undertow:http://localhost:" + port + "/" + path, null, String.class);
+        return json.readValue(body, Price[].class);
+    }
+}
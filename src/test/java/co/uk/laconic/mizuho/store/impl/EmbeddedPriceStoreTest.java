@@ -1,9 +1,18 @@
 package co.uk.laconic.mizuho.store.impl;
 
 import co.uk.laconic.mizuho.domain.Price;
+import co.uk.laconic.mizuho.store.StoreBudget;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -29,4 +38,138 @@ public class EmbeddedPriceStoreTest extends PriceStoreBaseTest<EmbeddedPriceStor
 
         assertThat(target.store).hasSize(1).containsExactly(young);
     }
+
+    @Test
+    public void whenMaxEntriesAreExceeded_ThenOldestPricesAreEvictedOnAppend() {
+        EmbeddedPriceStore store = new EmbeddedPriceStore(evictionThreshold, new StoreBudget(2, 0, ImmutableMap.of()));
+        Price first = priceFor("Bloomberg", "AAPL", Instant.now().minusSeconds(30));
+        Price second = priceFor("Reuters", "AAPL", Instant.now().minusSeconds(20));
+        Price third = priceFor("Bloomberg", "MSFT", Instant.now().minusSeconds(10));
+        store.append(first);
+        store.append(second);
+        assertThat(store.store).containsExactly(first, second);
+
+        store.append(third);
+        assertThat(store.store).containsExactly(second, third);
+    }
+
+    @Test
+    public void whenMaxBytesAreExceeded_ThenOldestPricesAreEvictedOnAppend() {
+        Price first = priceFor("Bloomberg", "AAPL", Instant.now().minusSeconds(30));
+        Price second = priceFor("Bloomberg", "AAPL", Instant.now().minusSeconds(20));
+        Price third = priceFor("Bloomberg", "AAPL", Instant.now().minusSeconds(10));
+        long budget = BudgetTracker.footprintOf(first) * 2;
+        EmbeddedPriceStore store = new EmbeddedPriceStore(evictionThreshold, new StoreBudget(0, budget, ImmutableMap.of()));
+
+        store.append(first);
+        store.append(second);
+        store.append(third);
+
+        assertThat(store.store).containsExactly(second, third);
+    }
+
+    @Test
+    public void whenVendorCapIsExceeded_ThenOnlyPricesOfThatVendorAreEvicted() {
+        EmbeddedPriceStore store = new EmbeddedPriceStore(evictionThreshold, new StoreBudget(0, 0, ImmutableMap.of("bloomberg", 2L)));
+        Price bloomberg_AAPL = priceFor("Bloomberg", "AAPL", Instant.now().minusSeconds(30));
+        Price reuters_AAPL = priceFor("Reuters", "AAPL", Instant.now().minusSeconds(25));
+        Price bloomberg_MSFT = priceFor("BLOOMBERG", "MSFT", Instant.now().minusSeconds(20));
+        Price reuters_MSFT = priceFor("Reuters", "MSFT", Instant.now().minusSeconds(15));
+        Price bloomberg_IBM = priceFor("bloomberg ", "IBM", Instant.now().minusSeconds(10));
+
+        store.append(bloomberg_AAPL);
+        store.append(reuters_AAPL);
+        store.append(bloomberg_MSFT);
+        store.append(reuters_MSFT);
+        store.append(bloomberg_IBM);
+
+        assertThat(store.store).containsExactly(reuters_AAPL, bloomberg_MSFT, reuters_MSFT, bloomberg_IBM);
+    }
+
+    @Test
+    public void whenPricesAreEvictedByAge_ThenTheyNoLongerCountTowardsTheBudget() {
+        EmbeddedPriceStore store = new EmbeddedPriceStore(evictionThreshold, new StoreBudget(2, 0, ImmutableMap.of()));
+        Price old = priceFor("Bloomberg", "AAPL", Instant.now().minus(evictionThreshold.plusSeconds(1)));
+        Price young = priceFor("Bloomberg", "AAPL", Instant.now().minusSeconds(10));
+        Price younger = priceFor("Bloomberg", "AAPL");
+        store.append(old);
+        store.append(young);
+        store.evict();
+
+        store.append(younger);
+
+        assertThat(store.store).containsExactly(young, younger);
+    }
+
+    @Test
+    public void whenAppendingConcurrently_ThenTheStoreEndsWithinBudgetAndReadersAreNotAffected() {
+        int maxEntries = 1_000;
+        EmbeddedPriceStore store = new EmbeddedPriceStore(evictionThreshold, new StoreBudget(maxEntries, 0, ImmutableMap.of()));
+        AtomicBoolean appending = new AtomicBoolean(true);
+
+        CompletableFuture<Long> reads = CompletableFuture.supplyAsync(() -> {
+            long count = 0;
+            while (appending.get()) {
+                count += store.getByVendor("Bloomberg").count();
+            }
+            return count;
+        });
+        List<CompletableFuture<Void>> writers = new ArrayList<>();
+        IntStream.range(0, 4).forEach(writer -> writers.add(CompletableFuture.runAsync(() ->
+                IntStream.range(0, 10_000).forEach(i -> store.append(priceFor("Bloomberg", "AAPL"))))));
+        CompletableFuture.allOf(writers.toArray(new CompletableFuture[0])).join();
+        appending.set(false);
+
+        // readers are never blocked, and would have surfaced any error here
+        reads.join();
+        assertThat(store.store).hasSize(maxEntries);
+    }
+
+    @Test(timeout = 5_000)
+    public void whenVendorIdsHaveSurroundingWhitespace_ThenTheyAreStillEvictedOverTheCap() {
+        EmbeddedPriceStore store = new EmbeddedPriceStore(evictionThreshold, new StoreBudget(0, 0, ImmutableMap.of("reuters", 1L)));
+        Price older = priceFor("Reuters ", "AAPL", Instant.now().minusSeconds(20));
+        Price newer = priceFor(" REUTERS", "MSFT", Instant.now().minusSeconds(10));
+
+        store.append(older);
+        store.append(newer);
+
+        assertThat(store.store).containsExactly(newer);
+    }
+
+    @Test
+    public void whenAppendsGoOverBudgetWhileEvicting_ThenTheEvictingThreadBringsTheStoreBackUnderBudget() throws Exception {
+        EmbeddedPriceStore store = new EmbeddedPriceStore(evictionThreshold, new StoreBudget(2, 0, ImmutableMap.of("reuters", 1L)));
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch appended = new CountDownLatch(1);
+        // stands for an eviction tick that is running while the prices come in
+        CompletableFuture<Void> evicting = CompletableFuture.runAsync(() -> {
+            store.budget.getEvictionLock().lock();
+            try {
+                locked.countDown();
+                appended.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                store.budget.getEvictionLock().unlock();
+            }
+        });
+        locked.await();
+        Price bloomberg_AAPL = priceFor("Bloomberg", "AAPL", Instant.now().minusSeconds(30));
+        Price reuters_AAPL = priceFor("Reuters", "AAPL", Instant.now().minusSeconds(20));
+        Price reuters_MSFT = priceFor("Reuters", "MSFT", Instant.now().minusSeconds(10));
+        Price bloomberg_MSFT = priceFor("Bloomberg", "MSFT");
+        store.append(bloomberg_AAPL);
+        store.append(reuters_AAPL);
+        store.append(reuters_MSFT);
+        store.append(bloomberg_MSFT);
+        // the appends could not take the lock, so they left it to the eviction
+        assertThat(store.store).hasSize(4);
+        appended.countDown();
+        evicting.join();
+
+        store.evict();
+
+        assertThat(store.store).containsExactly(reuters_MSFT, bloomberg_MSFT);
+    }
 }
@@ -0,0 +1,325 @@
+package co.uk.laconic.mizuho.store.impl;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoublePredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tiny stand-in for a redis server, so RedisPriceStore can be tested without one installed.
+ *
+ * It only understands the commands used by the store (sorted sets, sets, keys and pub/sub), speaks enough of the
+ * protocol for Jedis, and keeps everything in memory behind a single lock.
+ */
+class InProcessRedisServer implements Closeable {
+
+    private final ServerSocket server;
+    private final Map<String, Map<String, Double>> sortedSets = new HashMap<>();
+    private final Map<String, Set<String>> sets = new HashMap<>();
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private final Map<String, Duration> delays = new ConcurrentHashMap<>();
+
+    InProcessRedisServer() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "in-process-redis");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    URI uri() {
+        return URI.create("redis://127.0.0.1:" + server.getLocalPort());
+    }
+
+    /**
+     * Holds back the replies to the given command (without holding up any other client), as a slow network would
+     */
+    void delay(String command, Duration delay) {
+        delays.put(command.toUpperCase(), delay);
+    }
+
+    /**
+     * Drops every open connection, as a restart or a network issue would
+     */
+    void disconnectAll() {
+        connections.forEach(Connection::close);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        disconnectAll();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Connection connection = new Connection(server.accept());
+                connections.add(connection);
+                Thread thread = new Thread(connection, "in-process-redis-connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                // server closed
+            }
+        }
+    }
+
+    private synchronized Object execute(Connection connection, List<String> command) {
+        String name = command.get(0).toUpperCase();
+        List<String> args = command.subList(1, command.size());
+        switch (name) {
+            case "PING":
+                return Status.PONG;
+            case "QUIT":
+                connection.quit = true;
+                return Status.OK;
+            case "SELECT":
+            case "FLUSHDB":
+                if (name.equals("FLUSHDB")) {
+                    sortedSets.clear();
+                    sets.clear();
+                }
+                return Status.OK;
+            case "ZADD": {
+                Map<String, Double> zset = sortedSets.computeIfAbsent(args.get(0), key -> new HashMap<>());
+                long added = 0;
+                for (int i = 1; i < args.size(); i += 2) {
+                    if (zset.put(args.get(i + 1), Double.parseDouble(args.get(i))) == null) {
+                        added++;
+                    }
+                }
+                return added;
+            }
+            case "ZRANGEBYSCORE":
+                return sortedSets.getOrDefault(args.get(0), new HashMap<>()).entrySet().stream()
+                        .filter(entry -> min(args.get(1)).test(entry.getValue()) && max(args.get(2)).test(entry.getValue()))
+                        .sorted(Map.Entry.<String, Double>comparingByValue().thenComparing(Map.Entry.comparingByKey()))
+                        .map(Map.Entry::getKey)
+                        .collect(Collectors.toList());
+            case "ZREMRANGEBYSCORE": {
+                Map<String, Double> zset = sortedSets.getOrDefault(args.get(0), new HashMap<>());
+                int before = zset.size();
+                zset.values().removeIf(score -> min(args.get(1)).test(score) && max(args.get(2)).test(score));
+                if (zset.isEmpty()) {
+                    sortedSets.remove(args.get(0));
+                }
+                return (long) (before - zset.size());
+            }
+            case "ZCARD":
+                return (long) sortedSets.getOrDefault(args.get(0), new HashMap<>()).size();
+            case "SREM": {
+                Set<String> set = sets.getOrDefault(args.get(0), new HashSet<>());
+                long removed = args.subList(1, args.size()).stream().filter(set::remove).count();
+                if (set.isEmpty()) {
+                    sets.remove(args.get(0));
+                }
+                return removed;
+            }
+            case "SADD": {
+                Set<String> set = sets.computeIfAbsent(args.get(0), key -> new HashSet<>());
+                return args.subList(1, args.size()).stream().filter(set::add).count();
+            }
+            case "SMEMBERS":
+                return new ArrayList<>(sets.getOrDefault(args.get(0), new HashSet<>()));
+            case "KEYS": {
+                // only trailing wildcards are supported
+                String pattern = args.get(0);
+                String prefix = pattern.endsWith("*") ? pattern.substring(0, pattern.length() - 1) : pattern;
+                return Stream.concat(sortedSets.keySet().stream(), sets.keySet().stream())
+                        .filter(key -> pattern.endsWith("*") ? key.startsWith(prefix) : key.equals(pattern))
+                        .collect(Collectors.toList());
+            }
+            case "DEL":
+                return args.stream()
+                        .filter(key -> sortedSets.remove(key) != null | sets.remove(key) != null)
+                        .count();
+            case "PUBLISH":
+                return connections.stream()
+                        .filter(subscriber -> subscriber.channels.contains(args.get(0)))
+                        .filter(subscriber -> subscriber.send(Stream.of("message", args.get(0), args.get(1)).collect(Collectors.toList())))
+                        .count();
+            case "SUBSCRIBE":
+                args.forEach(channel -> {
+                    connection.channels.add(channel);
+                    connection.send(reply("subscribe", channel, connection.channels.size()));
+                });
+                return null;
+            case "UNSUBSCRIBE":
+                (args.isEmpty() ? new ArrayList<>(connection.channels) : args).forEach(channel -> {
+                    connection.channels.remove(channel);
+                    connection.send(reply("unsubscribe", channel, connection.channels.size()));
+                });
+                return null;
+            default:
+                return new Error("ERR unknown command '" + name + "'");
+        }
+    }
+
+    private static List<Object> reply(Object... values) {
+        List<Object> reply = new ArrayList<>();
+        for (Object value : values) {
+            reply.add(value instanceof Integer ? Long.valueOf((Integer) value) : value);
+        }
+        return reply;
+    }
+
+    private static DoublePredicate min(String bound) {
+        if (bound.equals("-inf")) {
+            return score -> true;
+        }
+        return bound.startsWith("(")
+                ? score -> score > Double.parseDouble(bound.substring(1))
+                : score -> score >= Double.parseDouble(bound);
+    }
+
+    private static DoublePredicate max(String bound) {
+        if (bound.equals("+inf") || bound.equals("inf")) {
+            return score -> true;
+        }
+        return bound.startsWith("(")
+                ? score -> score < Double.parseDouble(bound.substring(1))
+                : score -> score <= Double.parseDouble(bound);
+    }
+
+    private enum Status { OK, PONG }
+
+    private static final class Error {
+        private final String message;
+
+        Error(String message) {
+            this.message = message;
+        }
+    }
+
+    private final class Connection implements Runnable {
+
+        private final Socket socket;
+        private final Set<String> channels = new HashSet<>();
+        private boolean quit;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try (InputStream in = new BufferedInputStream(socket.getInputStream())) {
+                List<String> command;
+                while (!quit && (command = readCommand(in)) != null) {
+                    Object reply = execute(this, command);
+                    Thread.sleep(delays.getOrDefault(command.get(0).toUpperCase(), Duration.ZERO).toMillis());
+                    if (reply != null) {
+                        send(reply);
+                    }
+                }
+            } catch (IOException e) {
+                // client went away
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Writes the whole reply at once, as replies and published messages can come from different threads
+         */
+        synchronized boolean send(Object reply) {
+            StringBuilder out = new StringBuilder();
+            write(out, reply);
+            try {
+                OutputStream stream = socket.getOutputStream();
+                stream.write(out.toString().getBytes(StandardCharsets.UTF_8));
+                stream.flush();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void close() {
+            connections.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+
+        private void write(StringBuilder out, Object value) {
+            if (value instanceof Status) {
+                out.append('+').append(value).append("\r\n");
+            } else if (value instanceof Error) {
+                out.append('-').append(((Error) value).message).append("\r\n");
+            } else if (value instanceof Long) {
+                out.append(':').append(value).append("\r\n");
+            } else if (value instanceof String) {
+                out.append('$').append(((String) value).getBytes(StandardCharsets.UTF_8).length).append("\r\n")
+                        .append(value).append("\r\n");
+            } else {
+                List<?> values = (List<?>) value;
+                out.append('*').append(values.size()).append("\r\n");
+                values.forEach(element -> write(out, element));
+            }
+        }
+
+        private List<String> readCommand(InputStream in) throws IOException {
+            String header = readLine(in);
+            if (header == null) {
+                return null;
+            }
+            if (!header.startsWith("*")) {
+                // inline command
+                return Stream.of(header.trim().split("\\s+")).collect(Collectors.toList());
+            }
+            int count = Integer.parseInt(header.substring(1));
+            List<String> command = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int length = Integer.parseInt(readLine(in).substring(1));
+                byte[] bytes = new byte[length + 2];
+                int read = 0;
+                while (read < bytes.length) {
+                    int n = in.read(bytes, read, bytes.length - read);
+                    if (n < 0) {
+                        return null;
+                    }
+                    read += n;
+                }
+                command.add(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            }
+            return command;
+        }
+
+        private String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c < 0) {
+                    return null;
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package co.uk.laconic.mizuho.store.impl;
+
+import co.uk.laconic.mizuho.domain.Price;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NewestFirstMergeTest {
+
+    private final Instant start = Instant.parse("2018-11-01T08:00:00Z");
+
+    @Test
+    public void whenNothingIsMerged_ThenNothingIsReturned() {
+        NewestFirstMerge merge = new NewestFirstMerge(Collections.emptyIterator(), Collections.emptyList());
+
+        assertThat(merge.hasNext()).isFalse();
+    }
+
+    @Test
+    public void whenBlocksOverlap_ThenAllPricesAreReturnedNewestFirst() {
+        List<Price> early = pricesAt(0, 10, 20, 30);
+        // sealed later, for prices that showed up late
+        List<Price> late = pricesAt(5, 25, 35);
+        List<Price> recent = pricesAt(50, 40);
+
+        NewestFirstMerge merge = new NewestFirstMerge(recent.iterator(), Arrays.asList(PriceBlock.seal(early), PriceBlock.seal(late)));
+
+        assertThat(Lists.newArrayList(merge))
+                .extracting(Price::getTimestamp)
+                .containsExactlyElementsOf(secondsAfterStart(50, 40, 35, 30, 25, 20, 10, 5, 0));
+    }
+
+    @Test
+    public void whenOnlyTheNewestPricesAreRead_ThenOlderBlocksAreNotDecoded() {
+        List<PriceBlock> blocks = IntStream.range(0, 24)
+                .mapToObj(hour -> PriceBlock.seal(pricesAt(hour * 3600, hour * 3600 + 1800)))
+                .collect(Collectors.toList());
+        Collections.shuffle(blocks);
+        NewestFirstMerge merge = new NewestFirstMerge(pricesAt(100_000).iterator(), blocks);
+
+        assertThat(merge.next().getTimestamp()).isEqualTo(start.plusSeconds(100_000));
+        assertThat(merge.next().getTimestamp()).isEqualTo(start.plusSeconds(23 * 3600 + 1800));
+        assertThat(merge.next().getTimestamp()).isEqualTo(start.plusSeconds(23 * 3600));
+        assertThat(merge.openedBlocks).isEqualTo(1);
+    }
+
+    private List<Price> pricesAt(int... seconds) {
+        return secondsAfterStart(seconds).stream()
+                .map(timestamp -> new Price("Bloomberg", "AAPL", 10.5, 11.0, timestamp))
+                .collect(Collectors.toList());
+    }
+
+    private List<Instant> secondsAfterStart(int... seconds) {
+        return Arrays.stream(seconds).mapToObj(start::plusSeconds).collect(Collectors.toList());
+    }
+}
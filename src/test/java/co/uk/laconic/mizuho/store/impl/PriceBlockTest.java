@@ -0,0 +1,110 @@
+package co.uk.laconic.mizuho.store.impl;
+
+import co.uk.laconic.mizuho.domain.Price;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.tuple;
+
+public class PriceBlockTest {
+
+    private final Instant start = Instant.parse("2018-11-01T08:00:00Z");
+
+    @Test
+    public void whenSealingNoPrices_ThenErrorIsRaised() {
+        assertThatExceptionOfType(IllegalArgumentException.class).isThrownBy(() -> PriceBlock.seal(Collections.emptyList()));
+    }
+
+    @Test
+    public void whenSealingPricesOfDifferentInstruments_ThenErrorIsRaised() {
+        List<Price> prices = Arrays.asList(
+                new Price("Bloomberg", "AAPL", 1.0, 1.0, start),
+                new Price("Bloomberg", "MSFT", 1.0, 1.0, start));
+        assertThatExceptionOfType(IllegalArgumentException.class).isThrownBy(() -> PriceBlock.seal(prices));
+    }
+
+    @Test
+    public void whenPricesAreSealed_ThenTheyAreReadBackSortedByTimestamp() {
+        Price first = new Price("Bloomberg", "AAPL", 10.5, 11.0, start);
+        Price second = new Price("Bloomberg", "AAPL", 10.6, 11.0, start.plusMillis(250));
+        Price third = new Price("Bloomberg", "AAPL", 10.4, 10.9, start.plusSeconds(3));
+
+        PriceBlock block = PriceBlock.seal(Arrays.asList(third, first, second));
+
+        assertThat(block.size()).isEqualTo(3);
+        assertThat(block.getVendorId()).isEqualTo("Bloomberg");
+        assertThat(block.getInstrumentId()).isEqualTo("AAPL");
+        assertThat(block.getOldest()).isEqualTo(first.getTimestamp());
+        assertThat(block.getNewest()).isEqualTo(third.getTimestamp());
+        assertThat(block.stream())
+                .extracting(Price::getTimestamp, Price::getBid, Price::getAsk)
+                .containsExactly(
+                        tuple(first.getTimestamp(), 10.5, 11.0),
+                        tuple(second.getTimestamp(), 10.6, 11.0),
+                        tuple(third.getTimestamp(), 10.4, 10.9));
+    }
+
+    @Test
+    public void whenPricesHaveIrregularTimestampsAndValues_ThenTheyAreReadBackExactly() {
+        Random random = new Random(42);
+        List<Price> prices = new ArrayList<>();
+        Instant timestamp = start;
+        for (int i = 0; i < 5_000; i++) {
+            // mix of repeated timestamps, small and large gaps, and sub milli precision
+            switch (random.nextInt(4)) {
+                case 0: break;
+                case 1: timestamp = timestamp.plusMillis(random.nextInt(100)); break;
+                case 2: timestamp = timestamp.plusSeconds(random.nextInt(100_000)); break;
+                default: timestamp = timestamp.plusNanos(random.nextInt(1_000_000_000)); break;
+            }
+            Double bid = random.nextInt(10) == 0 ? null : random.nextDouble() * 1000;
+            Double ask = random.nextInt(10) == 0 ? null : (random.nextBoolean() ? bid : Double.valueOf(-random.nextGaussian()));
+            prices.add(new Price("Bloomberg", "AAPL", bid, ask, timestamp));
+        }
+
+        PriceBlock block = PriceBlock.seal(prices);
+
+        assertThat(block.stream().collect(Collectors.toList()))
+                .extracting(Price::getTimestamp, Price::getBid, Price::getAsk)
+                .containsExactlyElementsOf(prices.stream()
+                        .map(price -> tuple(price.getTimestamp(), price.getBid(), price.getAsk()))
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void whenPricesTickRegularly_ThenTheyAreStoredInAFractionOfTheSpace() {
+        List<Price> prices = new ArrayList<>();
+        double bid = 100.0;
+        for (int i = 0; i < 10_000; i++) {
+            bid += (i % 7 - 3) * 0.25;
+            prices.add(new Price("Bloomberg", "AAPL", bid, bid + 0.5, start.plusSeconds(i)));
+        }
+
+        PriceBlock block = PriceBlock.seal(prices);
+
+        // a timestamp and two doubles alone would take 32 bytes without any compression
+        assertThat(block.sizeInBytes()).isLessThan(prices.size() * 8);
+        assertThat(block.stream()).containsExactlyElementsOf(prices);
+    }
+
+    @Test
+    public void whenReadNewestFirst_ThenPricesComeBackInReverse() {
+        Price first = new Price("Bloomberg", "AAPL", 10.5, 11.0, start);
+        Price second = new Price("Bloomberg", "AAPL", 10.6, 11.0, start.plusMillis(250));
+        Price third = new Price("Bloomberg", "AAPL", 10.4, 10.9, start.plusSeconds(3));
+
+        PriceBlock block = PriceBlock.seal(Arrays.asList(second, third, first));
+
+        assertThat(Lists.newArrayList(block.newestFirst())).containsExactly(third, second, first);
+    }
+}
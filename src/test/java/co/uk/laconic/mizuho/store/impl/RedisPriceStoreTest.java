@@ -0,0 +1,198 @@
+package co.uk.laconic.mizuho.store.impl;
+
+import co.uk.laconic.mizuho.domain.Price;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+
+public class RedisPriceStoreTest extends PriceStoreBaseTest<RedisPriceStore> {
+
+    private static InProcessRedisServer server;
+    private static final AtomicInteger prefixes = new AtomicInteger();
+    private final List<RedisPriceStore> stores = new ArrayList<>();
+    private final String prefix = "test" + prefixes.incrementAndGet();
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = new InProcessRedisServer();
+    }
+
+    @AfterClass
+    public static void stopServer() throws IOException {
+        server.close();
+    }
+
+    @After
+    public void tearDown() {
+        stores.forEach(RedisPriceStore::close);
+    }
+
+    @Override
+    protected RedisPriceStore createStore(Duration evictionThreshold) {
+        RedisPriceStore store = new RedisPriceStore(server.uri(), evictionThreshold, 100, prefix);
+        stores.add(store);
+        return store;
+    }
+
+    @Override
+    public void whenEvictionRequested_ThenPricesOlderThanThresholdAreRemoved() {
+        Price young = priceFor("Bloomberg", "AAPL");
+        // create a price that is older than allowed by the eviction threshold, and add some leeway just in case.
+        Price old = priceFor("Bloomberg", "AAPL", Instant.now().minus(evictionThreshold.plusSeconds(1)));
+        target.append(young);
+        target.append(old);
+
+        target.evict();
+
+        // a store on the same keys but keeping prices for longer would still see `old` if it was there
+        RedisPriceStore longer = createStore(evictionThreshold.multipliedBy(2));
+        assertThat(longer.getByInstrument("AAPL")).containsExactly(young);
+    }
+
+    @Test
+    public void whenPricesAreAppendedInBulk_ThenTheyAreAllReturned() {
+        Price bloomberg_AAPL = priceFor("Bloomberg", "AAPL", Instant.now().minusSeconds(30));
+        Price reuters_AAPL = priceFor("Reuters", "AAPL", Instant.now().minusSeconds(20));
+        Price bloomberg_MSFT = priceFor("Bloomberg", "MSFT", Instant.now().minusSeconds(10));
+
+        target.appendAll(Arrays.asList(bloomberg_AAPL, reuters_AAPL, bloomberg_MSFT));
+
+        assertThat(target.getByInstrument("AAPL")).containsExactly(reuters_AAPL, bloomberg_AAPL);
+        assertThat(target.getByVendor("Bloomberg")).containsExactly(bloomberg_MSFT, bloomberg_AAPL);
+    }
+
+    @Test
+    public void whenAnotherInstanceAppends_ThenTheNearCacheIsInvalidated() {
+        RedisPriceStore other = createStore(evictionThreshold);
+        Price first = priceFor("Bloomberg", "AAPL", Instant.now().minusSeconds(10));
+        target.append(first);
+        // reading it puts the series in the near-cache
+        assertThat(target.getByInstrument("AAPL")).containsExactly(first);
+
+        Price second = priceFor("Bloomberg", "AAPL");
+        other.append(second);
+
+        await().untilAsserted(() -> assertThat(target.getByInstrument("AAPL")).containsExactly(second, first));
+    }
+
+    @Test
+    public void whenTheConnectionsAreDropped_ThenStalePricesAreNeverReturned() {
+        RedisPriceStore other = createStore(evictionThreshold);
+        Price first = priceFor("Bloomberg", "AAPL", Instant.now().minusSeconds(10));
+        target.append(first);
+        assertThat(target.getByVendor("Bloomberg")).containsExactly(first);
+
+        server.disconnectAll();
+
+        // pooled connections dropped by the server fail once before being replaced
+        Price second = priceFor("Bloomberg", "AAPL", Instant.now().minusSeconds(5));
+        await().ignoreExceptions().untilAsserted(() -> {
+            other.append(second);
+            assertThat(target.getByVendor("Bloomberg")).containsExactly(second, first);
+        });
+
+        // whether or not the subscription is back yet, the next append from elsewhere is seen
+        Price third = priceFor("Bloomberg", "AAPL");
+        other.append(third);
+        await().untilAsserted(() -> assertThat(target.getByVendor("Bloomberg")).containsExactly(third, second, first));
+    }
+
+    @Test
+    public void whenASeriesIsLargerThanTheNearCache_ThenItIsNotCached() {
+        RedisPriceStore store = new RedisPriceStore(server.uri(), evictionThreshold, 8, prefix);
+        stores.add(store);
+        store.appendAll(IntStream.range(0, 20)
+                .mapToObj(i -> priceFor("Bloomberg", "AAPL", Instant.now().minusSeconds(i)))
+                .collect(Collectors.toList()));
+        store.append(priceFor("Bloomberg", "MSFT"));
+
+        // small series are cached as soon as the invalidations subscription is up
+        await().untilAsserted(() -> {
+            assertThat(store.getByInstrument("MSFT")).hasSize(1);
+            assertThat(store.nearCache.asMap()).containsOnlyKeys(prefix + ":series:bloomberg:msft");
+        });
+        assertThat(store.getByInstrument("AAPL")).hasSize(20);
+        assertThat(store.nearCache.asMap()).containsOnlyKeys(prefix + ":series:bloomberg:msft");
+    }
+
+    @Test
+    public void whenEvictionRemovesNothing_ThenOtherInstancesKeepTheirNearCache() {
+        RedisPriceStore other = createStore(evictionThreshold);
+        Price bloomberg_AAPL = priceFor("Bloomberg", "AAPL");
+        Price bloomberg_MSFT = priceFor("Bloomberg", "MSFT");
+        target.append(bloomberg_AAPL);
+        target.append(bloomberg_MSFT);
+        await().untilAsserted(() -> {
+            assertThat(other.getByVendor("Bloomberg")).hasSize(2);
+            assertThat(other.nearCache.asMap()).hasSize(2);
+        });
+
+        target.evict();
+        // invalidations are delivered in order, so once this one is seen any from the eviction would have been too
+        target.append(priceFor("Bloomberg", "MSFT", Instant.now().minusSeconds(1)));
+
+        await().untilAsserted(() -> assertThat(other.nearCache.asMap()).doesNotContainKey(prefix + ":series:bloomberg:msft"));
+        assertThat(other.nearCache.asMap()).containsOnlyKeys(prefix + ":series:bloomberg:aapl");
+    }
+
+    @Test
+    public void whenEvictionEmptiesASeries_ThenItIsRemovedFromTheIndexes() {
+        Price old = priceFor("Bloomberg", "AAPL", Instant.now().minus(evictionThreshold.plusSeconds(1)));
+        Price young = priceFor("Reuters:EU", "AAPL");
+        target.append(old);
+        target.append(young);
+
+        target.evict();
+
+        try (Jedis jedis = new Jedis(server.uri())) {
+            assertThat(jedis.smembers(prefix + ":series")).containsOnly(prefix + ":series:reuters%3aeu:aapl");
+            assertThat(jedis.smembers(prefix + ":instruments:aapl")).containsOnly(prefix + ":series:reuters%3aeu:aapl");
+            assertThat(jedis.smembers(prefix + ":vendors:bloomberg")).isEmpty();
+        }
+        assertThat(target.getByVendor("Reuters:EU")).containsExactly(young);
+    }
+
+    @Test
+    public void whenOtherSeriesKeepChanging_ThenTheQueriedSeriesIsStillCached() {
+        RedisPriceStore other = createStore(evictionThreshold);
+        target.append(priceFor("Bloomberg", "MSFT"));
+        // slow reads, so the other series always change while one is being fetched
+        server.delay("ZRANGEBYSCORE", Duration.ofMillis(100));
+        AtomicBoolean appending = new AtomicBoolean(true);
+        CompletableFuture<Void> feed = CompletableFuture.runAsync(() -> {
+            while (appending.get()) {
+                other.append(priceFor("Reuters", "AAPL"));
+                target.append(priceFor("Bloomberg", "AAPL"));
+            }
+        });
+
+        try {
+            await().untilAsserted(() -> {
+                assertThat(target.getByInstrument("MSFT")).hasSize(1);
+                assertThat(target.nearCache.asMap()).containsKey(prefix + ":series:bloomberg:msft");
+            });
+        } finally {
+            appending.set(false);
+            feed.join();
+            server.delay("ZRANGEBYSCORE", Duration.ZERO);
+        }
+    }
+}
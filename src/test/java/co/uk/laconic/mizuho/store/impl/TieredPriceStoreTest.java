@@ -0,0 +1,230 @@
+package co.uk.laconic.mizuho.store.impl;
+
+import co.uk.laconic.mizuho.domain.Price;
+import co.uk.laconic.mizuho.store.StoreBudget;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+
+public class TieredPriceStoreTest extends PriceStoreBaseTest<TieredPriceStore> {
+
+    private final Duration sealThreshold = Duration.ofHours(1);
+
+    @Override
+    protected TieredPriceStore createStore(Duration evictionThreshold) {
+        return new TieredPriceStore(evictionThreshold, sealThreshold, Duration.ofMinutes(1));
+    }
+
+    @Override
+    public void whenEvictionRequested_ThenPricesOlderThanThresholdAreRemoved() {
+        Price young = priceFor("Bloomberg", "AAPL");
+        // create a price that is older than allowed by the eviction threshold, and add some leeway just in case.
+        Price old = priceFor("Bloomberg", "AAPL", Instant.now().minus(evictionThreshold.plusSeconds(1)));
+        // append the two entries
+        target.append(young);
+        target.append(old);
+
+        // once we evict then the size is `1` and only `young` is in the list
+        target.evict();
+
+        assertThat(target.hot).hasSize(1).containsExactly(young);
+        assertThat(target.cold).isEmpty();
+    }
+
+    @Test
+    public void whenEvictionRequested_ThenPricesOlderThanSealThresholdAreMovedToColdTier() {
+        Price young = priceFor("Bloomberg", "AAPL");
+        Price older = priceFor("Bloomberg", "AAPL", Instant.now().minus(sealThreshold.plusMinutes(10)));
+        Price oldest = priceFor("Bloomberg", "AAPL", Instant.now().minus(sealThreshold.plusMinutes(20)));
+        target.append(older);
+        target.append(young);
+        target.append(oldest);
+
+        target.evict();
+
+        // only `young` is kept as is, the other two are in the cold tier and still returned in order
+        assertThat(target.hot).containsExactly(young);
+        assertThat(target.cold.get("bloomberg").get("aapl")).isNotEmpty();
+        assertThat(target.getByInstrument("AAPL")).containsExactly(young, older, oldest);
+        assertThat(target.getByVendor("bloomberg")).containsExactly(young, older, oldest);
+        assertThat(target.getByVendor("Reuters")).isEmpty();
+    }
+
+    @Test
+    public void whenSealedPricesAreQueried_ThenTheyAreMergedWithRecentOnesAcrossVendors() {
+        Price bloomberg_AAPL = priceFor("Bloomberg", "AAPL", Instant.now().minus(sealThreshold.plusMinutes(10)));
+        Price bloomberg_MSFT = priceFor("Bloomberg", "MSFT", Instant.now().minus(sealThreshold.plusMinutes(5)));
+        Price reuters_AAPL = priceFor("Reuters", "AAPL", Instant.now().minus(sealThreshold.plusMinutes(15)));
+        target.append(bloomberg_AAPL);
+        target.append(bloomberg_MSFT);
+        target.append(reuters_AAPL);
+        target.evict();
+
+        Price recent = priceFor("Reuters", "AAPL");
+        target.append(recent);
+
+        assertThat(target.hot).containsExactly(recent);
+        assertThat(target.getByInstrument("aapl")).containsExactly(recent, bloomberg_AAPL, reuters_AAPL);
+        assertThat(target.getByVendor("BLOOMBERG")).containsExactly(bloomberg_MSFT, bloomberg_AAPL);
+    }
+
+    @Test
+    public void whenSealedPricesArePastEvictionThreshold_ThenTheirBlocksAreDropped() {
+        // use a store with a really short retention so we can wait for the prices to age
+        TieredPriceStore store = new TieredPriceStore(Duration.ofSeconds(2), Duration.ofSeconds(1), Duration.ofMillis(1));
+        Price price = priceFor("Bloomberg", "AAPL", Instant.now().minusMillis(1500));
+        store.append(price);
+        store.evict();
+        assertThat(store.hot).isEmpty();
+        assertThat(store.getByInstrument("AAPL")).containsExactly(price);
+
+        // once past the eviction threshold it is not returned anymore, and the block is dropped when evicting
+        await().untilAsserted(() -> assertThat(store.getByInstrument("AAPL")).isEmpty());
+        store.evict();
+        assertThat(store.cold.get("bloomberg").get("aapl")).isEmpty();
+    }
+
+    @Test
+    public void whenBudgetIsExceeded_ThenOldestBlocksAreEvictedFirst() {
+        TieredPriceStore store = new TieredPriceStore(evictionThreshold, sealThreshold, Duration.ofMinutes(1),
+                new StoreBudget(3, 0, ImmutableMap.of()));
+        Price oldest = priceFor("Bloomberg", "AAPL", Instant.now().minus(sealThreshold.plusMinutes(20)));
+        Price older = priceFor("Reuters", "AAPL", Instant.now().minus(sealThreshold.plusMinutes(10)));
+        Price young = priceFor("Bloomberg", "AAPL", Instant.now().minusSeconds(10));
+        store.append(oldest);
+        store.append(older);
+        store.append(young);
+        store.evict();
+        assertThat(store.getByInstrument("AAPL")).containsExactly(young, older, oldest);
+
+        // the block holding `oldest` goes first even though `young` was appended before it got sealed
+        Price younger = priceFor("Bloomberg", "AAPL");
+        store.append(younger);
+
+        assertThat(store.getByInstrument("AAPL")).containsExactly(younger, young, older);
+        assertThat(store.cold.get("bloomberg").get("aapl")).isEmpty();
+    }
+
+    @Test
+    public void whenVendorCapIsExceeded_ThenOnlyEntriesOfThatVendorAreEvicted() {
+        TieredPriceStore store = new TieredPriceStore(evictionThreshold, sealThreshold, Duration.ofMinutes(1),
+                new StoreBudget(0, 0, ImmutableMap.of("Reuters", 1L)));
+        Price bloomberg_sealed = priceFor("Bloomberg", "AAPL", Instant.now().minus(sealThreshold.plusMinutes(20)));
+        Price reuters_sealed = priceFor("Reuters", "AAPL", Instant.now().minus(sealThreshold.plusMinutes(10)));
+        store.append(bloomberg_sealed);
+        store.append(reuters_sealed);
+        store.evict();
+
+        Price reuters_young = priceFor("Reuters", "AAPL");
+        store.append(reuters_young);
+
+        assertThat(store.getByInstrument("AAPL")).containsExactly(reuters_young, bloomberg_sealed);
+        assertThat(store.hot).containsExactly(reuters_young);
+    }
+
+    @Test(timeout = 5_000)
+    public void whenVendorIdsHaveSurroundingWhitespace_ThenTheyAreStillEvictedOverTheCap() {
+        TieredPriceStore store = new TieredPriceStore(evictionThreshold, sealThreshold, Duration.ofMinutes(1),
+                new StoreBudget(0, 0, ImmutableMap.of("reuters", 1L)));
+        Price sealed = priceFor("Reuters ", "AAPL", Instant.now().minus(sealThreshold.plusMinutes(10)));
+        store.append(sealed);
+        store.evict();
+        Price older = priceFor(" reuters", "AAPL", Instant.now().minusSeconds(20));
+        Price newer = priceFor("REUTERS ", "AAPL", Instant.now().minusSeconds(10));
+
+        store.append(older);
+        assertThat(store.getByInstrument("AAPL")).containsExactly(older);
+
+        store.append(newer);
+        assertThat(store.hot).containsExactly(newer);
+    }
+
+    @Test
+    public void whenAppendsGoOverBudgetWhileSealing_ThenTheEvictingThreadBringsTheStoreBackUnderBudget() throws Exception {
+        TieredPriceStore store = new TieredPriceStore(evictionThreshold, sealThreshold, Duration.ofMinutes(1),
+                new StoreBudget(2, 0, ImmutableMap.of("reuters", 1L)));
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch appended = new CountDownLatch(1);
+        // stands for an eviction tick that is busy sealing while the prices come in
+        CompletableFuture<Void> evicting = CompletableFuture.runAsync(() -> {
+            store.budget.getEvictionLock().lock();
+            try {
+                locked.countDown();
+                appended.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                store.budget.getEvictionLock().unlock();
+            }
+        });
+        locked.await();
+        Price bloomberg_AAPL = priceFor("Bloomberg", "AAPL", Instant.now().minusSeconds(30));
+        Price reuters_AAPL = priceFor("Reuters", "AAPL", Instant.now().minusSeconds(20));
+        Price reuters_MSFT = priceFor("Reuters", "MSFT", Instant.now().minusSeconds(10));
+        Price bloomberg_MSFT = priceFor("Bloomberg", "MSFT");
+        store.append(bloomberg_AAPL);
+        store.append(reuters_AAPL);
+        store.append(reuters_MSFT);
+        store.append(bloomberg_MSFT);
+        // the appends could not take the lock, so they left it to the eviction
+        assertThat(store.hot).hasSize(4);
+        appended.countDown();
+        evicting.join();
+
+        store.evict();
+
+        assertThat(store.hot).containsExactly(reuters_MSFT, bloomberg_MSFT);
+    }
+
+    @Test
+    public void whenVendorCapIsExceededByOne_ThenOnlyTheOldestSealedPriceIsEvicted() {
+        TieredPriceStore store = new TieredPriceStore(evictionThreshold, sealThreshold, Duration.ofHours(1),
+                new StoreBudget(0, 0, ImmutableMap.of("Reuters", 5L)));
+        Instant sealedAt = Instant.now().minus(sealThreshold.plusHours(2)).truncatedTo(ChronoUnit.HOURS);
+        List<Price> sealed = IntStream.range(0, 5)
+                .mapToObj(i -> priceFor("Reuters", "AAPL", sealedAt.plusSeconds(i)))
+                .collect(Collectors.toList());
+        sealed.forEach(store::append);
+        store.evict();
+        assertThat(store.cold.get("reuters").get("aapl")).hasSize(1);
+
+        Price young = priceFor("Reuters", "AAPL");
+        store.append(young);
+
+        // the block is kept, without its oldest price
+        assertThat(store.cold.get("reuters").get("aapl")).hasSize(1);
+        assertThat(store.cold.get("reuters").get("aapl").get(0).size()).isEqualTo(4);
+        assertThat(store.getByInstrument("AAPL")).containsExactly(young, sealed.get(4), sealed.get(3), sealed.get(2), sealed.get(1));
+    }
+
+    @Test
+    public void whenMaxEntriesAreExceededByOne_ThenOnlyTheOldestSealedPriceIsEvicted() {
+        TieredPriceStore store = new TieredPriceStore(evictionThreshold, sealThreshold, Duration.ofHours(1),
+                new StoreBudget(5, 0, ImmutableMap.of()));
+        Instant sealedAt = Instant.now().minus(sealThreshold.plusHours(2)).truncatedTo(ChronoUnit.HOURS);
+        List<Price> sealed = IntStream.range(0, 4)
+                .mapToObj(i -> priceFor("Bloomberg", "AAPL", sealedAt.plusSeconds(i)))
+                .collect(Collectors.toList());
+        sealed.forEach(store::append);
+        store.evict();
+        Price young = priceFor("Reuters", "AAPL", Instant.now().minusSeconds(10));
+        Price younger = priceFor("Reuters", "AAPL");
+
+        store.append(young);
+        store.append(younger);
+
+        assertThat(store.getByInstrument("AAPL")).containsExactly(younger, young, sealed.get(3), sealed.get(2), sealed.get(1));
+    }
+}